@@ -0,0 +1,130 @@
+package com.example.benchmarks;
+
+import com.example.common.BitBoard;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The client's win check against the shared bitboard. For every column of
+ * a position: where would a stone land, and would it win? That is what
+ * GameBoard does on each click and on each move it receives.
+ *
+ * <p>GameBoard plays on a {@link BitBoard}; {@link ArrayBoard} is the
+ * {@code int[][]} board and walks it used before, kept as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-XX:+UseParallelGC")
+public class BoardBenchmark {
+    // stones already on the board; no position here has a four in it yet
+    @Param({"0", "20", "36"})
+    int stones;
+
+    private final ArrayBoard array = new ArrayBoard();
+    private final BitBoard bits = new BitBoard();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42); // the same positions in every fork and every run
+        String moves;
+        do {
+            moves = position(random);
+        } while (moves == null);
+        for (int i = 0; i < moves.length(); i++) {
+            int col = moves.charAt(i) - '0';
+            array.board[array.getAvailableRow(col)][col] = bits.playerToMove();
+            bits.play(col);
+        }
+    }
+
+    // random moves that leave no four on the board, or null if every move left would make one
+    private String position(Random random) {
+        BitBoard b = new BitBoard();
+        StringBuilder moves = new StringBuilder();
+        while (b.moves() < stones) {
+            int[] safe = new int[BitBoard.WIDTH];
+            int n = 0;
+            for (int col = 0; col < BitBoard.WIDTH; col++) {
+                if (b.canPlay(col) && !b.isWinningMove(col)) safe[n++] = col;
+            }
+            if (n == 0) return null;
+            int col = safe[random.nextInt(n)];
+            b.play(col);
+            moves.append(col);
+        }
+        return moves.toString();
+    }
+
+    @Benchmark
+    public void gameBoardScan(Blackhole bh) {
+        int player = bits.playerToMove();
+        for (int col = 0; col < BitBoard.WIDTH; col++) {
+            int row = array.getAvailableRow(col);
+            if (row < 0) continue;
+            array.board[row][col] = player;
+            bh.consume(array.checkWin(row, col, player));
+            array.board[row][col] = 0;
+        }
+    }
+
+    @Benchmark
+    public void bitBoardScan(Blackhole bh) {
+        for (int col = 0; col < BitBoard.WIDTH; col++) {
+            if (!bits.canPlay(col)) continue;
+            bh.consume(bits.isWinningMove(col));
+        }
+    }
+
+    @Benchmark
+    public int gameBoardAvailableRow() {
+        int sum = 0;
+        for (int col = 0; col < BitBoard.WIDTH; col++) {
+            sum += array.getAvailableRow(col);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int bitBoardHeight() {
+        int sum = 0;
+        for (int col = 0; col < BitBoard.WIDTH; col++) {
+            sum += bits.height(col);
+        }
+        return sum;
+    }
+
+    /** GameBoard's former board and its two lookups, as they were. */
+    static final class ArrayBoard {
+        private static final int ROWS = 6, COLS = 7;
+        // 0 = empty, 1 = PLAYER1, 2 = PLAYER2
+        final int[][] board = new int[ROWS][COLS];
+
+        int getAvailableRow(int col) {
+            for (int r = ROWS - 1; r >= 0; r--) {
+                if (board[r][col] == 0) return r;
+            }
+            return -1;
+        }
+
+        boolean checkWin(int row, int col, int player) {
+            return count(row, col, 0,1, player) + count(row, col, 0,-1, player) - 1 >= 4
+                    || count(row, col, 1,0, player) + count(row, col, -1,0, player) - 1 >= 4
+                    || count(row, col, 1,1, player) + count(row, col, -1,-1, player) - 1 >= 4
+                    || count(row, col, 1,-1, player)+ count(row, col, -1,1, player) - 1 >= 4;
+        }
+
+        private int count(int r, int c, int dr, int dc, int p) {
+            int cnt = 0;
+            while (r >= 0 && r < ROWS && c >= 0 && c < COLS && board[r][c] == p) {
+                cnt++; r += dr; c += dc;
+            }
+            return cnt;
+        }
+    }
+}
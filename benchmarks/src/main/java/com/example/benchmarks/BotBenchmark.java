@@ -0,0 +1,109 @@
+package com.example.benchmarks;
+
+import com.example.common.BitBoard;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to depth for the bot's Lazy SMP search: a fixed set of middle-game
+ * positions searched to a fixed depth by a BotScheduler with 1, 2, ... N
+ * threads. The score is sets searched per second, the inverse of the time
+ * to depth, so the speedup at N threads is the N-thread score over the
+ * 1-thread one; pass {@code -p threads=1,2,...,N} for the machine's own
+ * curve. The nodes counter is positions searched per second by all the
+ * scheduler's threads together. Lazy SMP also searches more nodes in total
+ * as threads are added, so nodes per second grows faster than the score.
+ *
+ * <p>Every search starts from a new scheduler, so it cannot find the
+ * previous one's answers in the table.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-XX:+UseParallelGC")
+public class BotBenchmark {
+    private static final Class<?> SCHEDULER = ServerClasses.load("BotScheduler");
+    private static final MethodHandle SEARCH;
+    private static final MethodHandle NODES;
+    private static final MethodHandle CLOSE;
+    private static final int TABLE_BITS = 20; // the size the server's shared scheduler uses
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodHandle mh = lookup.findVirtual(SCHEDULER, "search",
+                    MethodType.methodType(int.class, BitBoard.class, long.class, int.class));
+            SEARCH = mh.asType(mh.type().changeParameterType(0, Object.class));
+            mh = lookup.findVirtual(SCHEDULER, "nodes", MethodType.methodType(long.class));
+            NODES = mh.asType(mh.type().changeParameterType(0, Object.class));
+            mh = lookup.findVirtual(SCHEDULER, "close", MethodType.methodType(void.class));
+            CLOSE = mh.asType(mh.type().changeParameterType(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({"1", "2", "4", "8"})
+    int threads;
+
+    @Param("14")
+    int depth;
+
+    /** Positions searched by every thread of the scheduler; reported per second. */
+    public long nodes;
+
+    private BitBoard[] positions;
+    private Object scheduler;
+
+    @Setup(Level.Trial)
+    public void positions() {
+        positions = new BitBoard[8];
+        Random random = new Random(42);
+        for (int i = 0; i < positions.length; i++) {
+            BitBoard b;
+            do { // 8 random plies that leave nobody an immediate win
+                b = new BitBoard();
+                while (b.moves() < 8) {
+                    int col = random.nextInt(BitBoard.WIDTH);
+                    if (b.canPlay(col) && !b.isWinningMove(col)) b.play(col);
+                }
+            } while (b.threats(true) != 0);
+            positions[i] = b;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetNodes() {
+        nodes = 0;
+    }
+
+    @Setup(Level.Invocation)
+    public void newScheduler() throws ReflectiveOperationException {
+        scheduler = SCHEDULER.getConstructor(int.class, int.class).newInstance(threads, TABLE_BITS);
+    }
+
+    // close waits for the helpers, so the count includes their last nodes
+    @TearDown(Level.Invocation)
+    public void closeScheduler() throws Throwable {
+        CLOSE.invokeExact(scheduler);
+        nodes += (long) NODES.invokeExact(scheduler);
+        scheduler = null;
+    }
+
+    // consumes rather than returns the moves: a public method returning a number would be read as a counter
+    @Benchmark
+    public void timeToDepth(Blackhole moves) throws Throwable {
+        for (BitBoard p : positions) {
+            moves.consume((int) SEARCH.invokeExact(scheduler, new BitBoard(p), Long.MAX_VALUE, depth));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.benchmarks;
+
+import com.example.common.GameEvent;
+import com.example.common.Protocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A GameEvent through the wire format and back, the work one move costs
+ * each side of a connection. Java serialization, which the protocol
+ * replaced, is kept alongside as the yardstick, the way the server used
+ * it: one ObjectOutputStream and one ObjectInputStream per connection,
+ * never reset, so class descriptors go out once and every later message
+ * pays only for its fields. Every operation sends a fresh event, as the
+ * server does, so serialization cannot shortcut to a back-reference.
+ * A connection is replaced after {@link #CONNECTION} messages, which keeps
+ * the streams' handle tables from growing without bound. GameEvent is no
+ * longer Serializable, so that side writes its {@link LegacyMessages} copy.
+ *
+ * <p>The setup prints each message's size: the protocol frame, the first
+ * serialized message on a connection and every one after it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-XX:+UseParallelGC")
+public class CodecBenchmark {
+    // messages per connection
+    static final int CONNECTION = 1 << 16;
+
+    @Param({"MOVE", "START", "WIN"})
+    String type;
+
+    private byte[] frame;
+    private int sent;
+
+    // encode and round trip: a writer and reader joined by a wire
+    private Wire wire;
+    private ObjectOutputStream out;
+    private ObjectInputStream in;
+
+    // decode: a connection's worth of messages, read back in order
+    private byte[] recorded;
+    private ObjectInputStream replay;
+    private int replayed;
+
+    @Setup
+    public void setUp() throws IOException {
+        frame = Protocol.encode(event(0));
+        connect();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(CONNECTION * 64);
+        ObjectOutputStream recorder = new ObjectOutputStream(bytes);
+        int header = bytes.size();
+        recorder.writeObject(LegacyMessages.of(event(0)));
+        recorder.flush();
+        int first = bytes.size() - header;
+        int afterFirst = bytes.size();
+        recorder.writeObject(LegacyMessages.of(event(1)));
+        recorder.flush();
+        int steady = bytes.size() - afterFirst;
+        for (int i = 2; i < CONNECTION; i++) {
+            recorder.writeObject(LegacyMessages.of(event(i)));
+        }
+        recorder.flush();
+        recorded = bytes.toByteArray();
+        replay = new ObjectInputStream(new ByteArrayInputStream(recorded));
+
+        System.out.printf("%n%s: protocol frame %d bytes, serialized %d bytes first and %d bytes each after%n",
+                type, frame.length, first, steady);
+    }
+
+    @Benchmark
+    public Object protocolRoundTrip() throws IOException {
+        byte[] f = Protocol.encode(event(sent++));
+        return Protocol.decode(f, Protocol.HEADER, f.length - Protocol.HEADER);
+    }
+
+    @Benchmark
+    public byte[] protocolEncode() {
+        return Protocol.encode(event(sent++));
+    }
+
+    @Benchmark
+    public Object protocolDecode() throws IOException {
+        return Protocol.decode(frame, Protocol.HEADER, frame.length - Protocol.HEADER);
+    }
+
+    @Benchmark
+    public int serializationEncode() throws IOException {
+        if (sent++ == CONNECTION) connect();
+        out.writeObject(LegacyMessages.of(event(sent)));
+        out.flush();
+        return wire.clear();
+    }
+
+    @Benchmark
+    public Object serializationDecode() throws IOException, ClassNotFoundException {
+        if (replayed++ == CONNECTION) {
+            replay = new ObjectInputStream(new ByteArrayInputStream(recorded));
+            replayed = 1;
+        }
+        return replay.readObject();
+    }
+
+    @Benchmark
+    public Object serializationRoundTrip() throws IOException, ClassNotFoundException {
+        if (sent++ == CONNECTION) connect();
+        out.writeObject(LegacyMessages.of(event(sent)));
+        out.flush();
+        return in.readObject();
+    }
+
+    // a new event each time; i varies a field so the JIT cannot fold them into one
+    private GameEvent event(int i) {
+        return switch (GameEvent.Type.valueOf(type)) {
+            case MOVE -> new GameEvent(GameEvent.Type.MOVE, (i & 0x7FFFFFFF) % 7, "player1");
+            case START -> new GameEvent(GameEvent.Type.START, "player2", "/planets/earth.png", 1 + (i & 1));
+            default -> new GameEvent(GameEvent.Type.WIN, "player1");
+        };
+    }
+
+    // a new connection: fresh streams, each starting with its header
+    private void connect() throws IOException {
+        wire = new Wire();
+        out = new ObjectOutputStream(wire);
+        out.flush();
+        in = new ObjectInputStream(wire.in);
+        sent = 1;
+    }
+
+    /** The bytes in flight on one connection: written at one end, read back at the other. */
+    private static final class Wire extends OutputStream {
+        private byte[] buf = new byte[1024];
+        private int head;
+        private int tail;
+
+        final InputStream in = new InputStream() {
+            @Override
+            public int read() {
+                return head < tail ? buf[head++] & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (head == tail) return -1;
+                int n = Math.min(len, tail - head);
+                System.arraycopy(buf, head, b, off, n);
+                head += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return tail - head;
+            }
+        };
+
+        @Override
+        public void write(int b) {
+            ensure(1);
+            buf[tail++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, tail, len);
+            tail += len;
+        }
+
+        /** Drops everything unread, as if the peer had taken it; returns how many bytes that was. */
+        int clear() {
+            int n = tail - head;
+            head = tail = 0;
+            return n;
+        }
+
+        private void ensure(int n) {
+            if (head == tail) head = tail = 0;
+            if (tail + n <= buf.length) return;
+            byte[] grown = new byte[Math.max(buf.length * 2, tail - head + n)];
+            System.arraycopy(buf, head, grown, 0, tail - head);
+            tail -= head;
+            head = 0;
+            buf = grown;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers Database.loginUser from several threads, the way a login
+ * storm after a restart does, and reports logins per second. A sign-up phase
+ * runs first so insert throughput is reported as well. {@link PersistenceBenchmark}
+ * times single calls under JMH; this is the storm, with the user cache's hit rate.
+ *
+ * <pre>java -cp benchmarks/target/benchmarks.jar com.example.benchmarks.DatabaseBenchmark [users] [threads] [logins]</pre>
+ *
+ * Uses a throwaway database, so connect4.db is never touched.
+ */
+public class DatabaseBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int logins = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+
+        Path db = Files.createTempFile("connect4-bench", ".db");
+        System.setProperty("connect4.db", db.toString());
+        ServerClasses.call("Database", "connect");
+        MethodHandle insertUser = ServerClasses.stringStatic("Database", "insertUser");
+        MethodHandle loginUser = ServerClasses.stringStatic("Database", "loginUser");
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // insertUser logs every row
+
+        AtomicInteger failures = new AtomicInteger();
+        long t0 = System.nanoTime();
+        run(threads, users, i -> (String) insertUser.invokeExact("bench" + i, "pw"), failures);
+        long signUp = System.nanoTime() - t0;
+
+        run(threads, Math.min(logins, 5_000), i -> (String) loginUser.invokeExact("bench" + i % users, "pw"), failures); // warm-up
+        t0 = System.nanoTime();
+        run(threads, logins, i -> (String) loginUser.invokeExact("bench" + i % users, "pw"), failures);
+        long login = System.nanoTime() - t0;
+
+        System.setOut(console);
+        System.out.printf("threads=%d users=%d failures=%d%n", threads, users, failures.get());
+        System.out.printf("sign-ups/s %10.0f%n", users / (signUp / 1e9));
+        System.out.printf("logins/s   %10.0f%n", logins / (login / 1e9));
+        System.out.println("user cache " + ServerClasses.load("UserCache").getMethod("summary")
+                .invoke(ServerClasses.call("Database", "userCache")));
+        ServerClasses.call("Database", "close");
+
+        Files.deleteIfExists(db);
+        Files.deleteIfExists(Path.of(db + "-wal"));
+        Files.deleteIfExists(Path.of(db + "-shm"));
+        System.exit(0);
+    }
+
+    private interface Call {
+        String run(int i) throws Throwable;
+    }
+
+    private static void run(int threads, int n, Call call, AtomicInteger failures) {
+        AtomicInteger next = new AtomicInteger();
+        try (ExecutorService exec = Executors.newFixedThreadPool(threads)) {
+            for (int t = 0; t < threads; t++) {
+                exec.execute(() -> {
+                    for (int i; (i = next.getAndIncrement()) < n; ) {
+                        try {
+                            if (!"SUCCESS".equals(call.run(i))) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (Throwable e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.benchmarks;
+
+import com.example.common.BitBoard;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the move journal costs the threads relaying games: a whole random
+ * game handed to the journal, start to end, on one thread and on four. The
+ * writer's queue is bounded, so once it is full this is the rate the writer
+ * gets games onto disk. Reading a finished game back is measured against a
+ * journal written once, up front.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-XX:+UseParallelGC")
+public class JournalBenchmark {
+    private static final Class<?> JOURNAL = ServerClasses.load("MoveJournal");
+    private static final MethodHandle OPEN = find("open", JOURNAL, Path.class);
+    private static final MethodHandle READ = find("read", JOURNAL, Path.class);
+    private static final MethodHandle START = virtual("start", int.class,
+            String.class, String.class, String.class, String.class, boolean.class);
+    private static final MethodHandle MOVE = virtual("move", void.class, int.class, int.class);
+    private static final MethodHandle END = virtual("end", void.class, int.class, int.class);
+    private static final MethodHandle REPLAY = virtual("replay", ServerClasses.load("MoveJournal$Game"), int.class);
+    private static final MethodHandle CLOSE = virtual("close", void.class);
+
+    // games written before the replay benchmark reads them back
+    private static final int RECORDED = 10_000;
+
+    private Path dir;
+    private Object journal;
+    private Object recorded;
+
+    @State(Scope.Thread)
+    public static class Games {
+        private final byte[][] games = new byte[64][];
+        private int next;
+
+        public Games() {
+            Random random = new Random(Thread.currentThread().threadId());
+            for (int i = 0; i < games.length; i++) {
+                games[i] = randomGame(random);
+            }
+        }
+
+        byte[] next() {
+            return games[next++ & (games.length - 1)];
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        ServerClasses.quiet();
+        dir = Files.createTempDirectory("connect4-bench");
+        journal = (Object) OPEN.invokeExact(dir.resolve("bench.journal"));
+
+        Path file = dir.resolve("recorded.journal");
+        Object writer = (Object) OPEN.invokeExact(file);
+        Random random = new Random(42);
+        for (int i = 0; i < RECORDED; i++) {
+            play(writer, randomGame(random));
+        }
+        CLOSE.invokeExact(writer); // flushes, so every game is on disk before it is indexed
+        recorded = (Object) READ.invokeExact(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        CLOSE.invokeExact(journal);
+        CLOSE.invokeExact(recorded);
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(p);
+            }
+        } catch (IOException ignored) {
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public int playGame(Games games) throws Throwable {
+        return play(journal, games.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int playGameContended(Games games) throws Throwable {
+        return play(journal, games.next());
+    }
+
+    @Benchmark
+    public Object replay(Games games) throws Throwable {
+        Object game = (Object) REPLAY.invokeExact(recorded, 1 + (games.next++ * 7919 & 0x7FFFFFFF) % RECORDED);
+        if (game == null) throw new IllegalStateException("a recorded game is missing");
+        return game;
+    }
+
+    private static int play(Object journal, byte[] moves) throws Throwable {
+        int id = (int) START.invokeExact(journal, "alice", "bob", "/planets/mars.png", "/planets/neptune.png", false);
+        for (byte col : moves) {
+            MOVE.invokeExact(journal, id, (int) col);
+        }
+        END.invokeExact(journal, id, moves.length % 2 == 1 ? 1 : 2);
+        return id;
+    }
+
+    // random columns until someone connects four or the board is full
+    private static byte[] randomGame(Random random) {
+        BitBoard board = new BitBoard();
+        byte[] moves = new byte[BitBoard.CELLS];
+        while (!board.isFull()) {
+            int col;
+            do {
+                col = random.nextInt(BitBoard.WIDTH);
+            } while (!board.canPlay(col));
+            boolean won = board.isWinningMove(col);
+            moves[board.moves()] = (byte) col;
+            board.play(col);
+            if (won) break;
+        }
+        return Arrays.copyOf(moves, board.moves());
+    }
+
+    private static MethodHandle find(String name, Class<?> returns, Class<?>... params) {
+        try {
+            MethodHandle mh = MethodHandles.publicLookup().findStatic(JOURNAL, name, MethodType.methodType(returns, params));
+            return mh.asType(mh.type().changeReturnType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** An instance method, with its receiver and a reference result widened to Object. */
+    private static MethodHandle virtual(String name, Class<?> returns, Class<?>... params) {
+        try {
+            MethodHandle mh = MethodHandles.publicLookup().findVirtual(JOURNAL, name, MethodType.methodType(returns, params));
+            MethodType type = mh.type().changeParameterType(0, Object.class);
+            return mh.asType(returns.isPrimitive() ? type : type.changeReturnType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
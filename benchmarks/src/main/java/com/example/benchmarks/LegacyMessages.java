@@ -0,0 +1,70 @@
+package com.example.benchmarks;
+
+import com.example.common.ChatMessage;
+import com.example.common.GameEvent;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * GameEvent and ChatMessage as Java serialization carried them before the
+ * binary protocol: the same fields, in classes that are still Serializable.
+ * The real ones no longer are. Only the class names differ, which changes
+ * the class descriptor sent with the first message on a connection and
+ * nothing after it.
+ */
+final class LegacyMessages {
+
+    private LegacyMessages() {}
+
+    /** The serializable copy of a GameEvent or ChatMessage. */
+    static Serializable of(Object message) {
+        if (message instanceof GameEvent e) {
+            return new Event(e.getType(), e.getColumn(), e.getMovingPlayer(), e.getWinningPlayer(),
+                    e.getPlanetPath(), e.getPlayerId());
+        }
+        if (message instanceof ChatMessage c) {
+            return new Chat(c.getSender(), c.getMessage(), c.getPlayerId(), c.getChannel());
+        }
+        throw new IllegalArgumentException("No serializable form of " + message);
+    }
+
+    static final class Event implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final GameEvent.Type type;
+        private final int column;
+        private final String movingPlayer;
+        private final String winningPlayer;
+        private final String planetPath;
+        private final int playerId;
+
+        Event(GameEvent.Type type, int column, String movingPlayer, String winningPlayer,
+              String planetPath, int playerId) {
+            this.type = type;
+            this.column = column;
+            this.movingPlayer = movingPlayer;
+            this.winningPlayer = winningPlayer;
+            this.planetPath = planetPath;
+            this.playerId = playerId;
+        }
+    }
+
+    static final class Chat implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final String sender;
+        private final String message;
+        private final int playerId;
+        private final String channel;
+
+        Chat(String sender, String message, int playerId, String channel) {
+            this.sender = sender;
+            this.message = message;
+            this.playerId = playerId;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.benchmarks;
+
+import com.example.common.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless players for capacity tests against a running server. Each
+ * simulated player is a virtual thread that signs up (or logs in), asks for
+ * a casual game, plays it to the end and queues again, the same protocol
+ * the JavaFX client speaks. A router's Redirect is followed to the shard.
+ *
+ * <pre>java -cp benchmarks/target/benchmarks.jar com.example.benchmarks.LoadGenerator [host:port] [players] [rampSeconds] [gamesEach]</pre>
+ *
+ * Moves are random legal columns, or follow {@code -Dload.script=3,3,4,...}
+ * (one column per move number, random once the script runs out or its
+ * column is full). {@code -Dload.thinkMillis} delays each move and
+ * {@code -Dload.chat} is the chance of a chat line with each move.
+ *
+ * <p>Reports logins per second, match time (asking to play until the game
+ * starts), per-move round trip (sending a move until the opponent's reply
+ * arrives, think time excluded), the one-way relay from one simulated player
+ * to the other, and errors by kind.
+ */
+public class LoadGenerator {
+    private static final long THINK_MILLIS = Long.getLong("load.thinkMillis", 0);
+    private static final double CHAT = Double.parseDouble(System.getProperty("load.chat", "0.05"));
+    private static final int[] SCRIPT = script(System.getProperty("load.script"));
+    private static final int READ_TIMEOUT_MS = Integer.getInteger("load.timeoutMillis", 60_000);
+    private static final int STRIPES = Runtime.getRuntime().availableProcessors();
+
+    private static final LatencyHistogram login = new LatencyHistogram(STRIPES);
+    private static final LatencyHistogram match = new LatencyHistogram(STRIPES);
+    private static final LatencyHistogram roundTrip = new LatencyHistogram(STRIPES);
+    private static final LatencyHistogram relay = new LatencyHistogram(STRIPES);
+    private static final LongAdder games = new LongAdder();
+    private static final LongAdder moves = new LongAdder();
+    private static final LongAdder chats = new LongAdder();
+    private static final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private static final AtomicInteger online = new AtomicInteger();
+    private static final AtomicLong lastLogin = new AtomicLong();
+    // by name, so a player can see when their opponent sent the move they just got
+    private static final Map<String, Player> players = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        String target = args.length > 0 ? args[0] : "localhost:5555";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        double rampSeconds = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        int gamesEach = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        int colon = target.lastIndexOf(':');
+        String host = target.substring(0, colon);
+        int port = Integer.parseInt(target.substring(colon + 1));
+
+        System.out.printf("%d players against %s, ramped over %.0fs, %d games each%n", count, target, rampSeconds, gamesEach);
+        long t0 = System.nanoTime();
+        Thread reporter = Thread.ofPlatform().daemon().start(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(5000);
+                    System.out.printf("%5.0fs  online=%d games=%d moves=%d errors=%d%n",
+                            (System.nanoTime() - t0) / 1e9, online.get(), games.sum(), moves.sum(), errorCount());
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            long gapNanos = count > 1 ? (long) (rampSeconds * 1e9 / (count - 1)) : 0;
+            for (int i = 0; i < count; i++) {
+                long due = t0 + i * gapNanos;
+                long wait = due - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                Player p = new Player("load" + i, host, port, gamesEach);
+                players.put(p.name, p);
+                exec.execute(p);
+            }
+        }
+        reporter.interrupt();
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+
+        System.out.printf("%nplayers %d, games %d, moves %d, chat lines received %d in %.1fs%n",
+                count, games.sum() / 2, moves.sum(), chats.sum(), elapsed);
+        System.out.printf("logins/s     %.0f%n", login.count() / ((lastLogin.get() - t0) / 1e9));
+        System.out.println("login        " + login.summary());
+        System.out.println("match time   " + match.summary());
+        System.out.println("move rtt     " + roundTrip.summary());
+        System.out.println("move relay   " + relay.summary());
+        System.out.printf("errors       %d (%.2f%% of players)%n", errorCount(), 100.0 * errorCount() / count);
+        errors.forEach((kind, n) -> System.out.println("  " + kind + ": " + n.sum()));
+    }
+
+    private static final class Player implements Runnable {
+        final String name;
+        final String host;
+        final int port;
+        final int gamesEach;
+        final BitBoard board = new BitBoard();
+        // when this player last sent a move, read by their opponent's thread
+        volatile long movedAt;
+
+        Player(String name, String host, int port, int gamesEach) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.gamesEach = gamesEach;
+        }
+
+        @Override
+        public void run() {
+            Conn router = null;
+            try {
+                router = logIn();
+                online.incrementAndGet();
+                for (int g = 0; g < gamesEach; g++) {
+                    play(router);
+                }
+            } catch (SocketTimeoutException e) {
+                error("timeout");
+            } catch (IOException e) {
+                error(e.getClass().getSimpleName());
+            } catch (RuntimeException e) {
+                error(e.toString());
+            } finally {
+                if (router != null) {
+                    online.decrementAndGet();
+                    router.close();
+                }
+            }
+        }
+
+        private Conn logIn() throws IOException {
+            long start = System.nanoTime();
+            for (boolean signUp : new boolean[] {true, false}) { // signing up again fails, then log in
+                Conn conn = new Conn(new Socket(host, port));
+                conn.send(new LoginRequest(signUp, name, "pw"));
+                LoginResult result = (LoginResult) conn.read();
+                if (result.ok()) {
+                    long now = System.nanoTime();
+                    login.record(now - start);
+                    lastLogin.accumulateAndGet(now, Math::max);
+                    return conn;
+                }
+                conn.close();
+                if (!signUp) throw new IOException("login refused: " + result.status());
+            }
+            throw new IllegalStateException();
+        }
+
+        private void play(Conn router) throws IOException {
+            long asked = System.nanoTime();
+            router.send(new PlayRequest("/planets/earth.png", false));
+            Conn game = router;
+            int me;
+            String played = "";
+            while (true) {
+                Object msg = game.read();
+                if (msg instanceof Redirect r) { // the router placed the game on a shard
+                    game = new Conn(new Socket(r.host(), r.port()));
+                    game.send(new LoginRequest(false, name, r.token()));
+                    LoginResult result = (LoginResult) game.read();
+                    if (!result.ok()) throw new IOException("shard refused: " + result.status());
+                } else if (msg instanceof GameEvent ge && ge.getType() == GameEvent.Type.START) {
+                    me = ge.getPlayerId();
+                    break;
+                } else if (msg instanceof Snapshot s) { // how a shard starts the game, maybe after a first move
+                    me = s.playerId();
+                    played = s.moves();
+                    break;
+                }
+            }
+            match.record(System.nanoTime() - asked);
+            try {
+                playGame(game, me, played);
+            } finally {
+                if (game != router) game.close();
+            }
+        }
+
+        private void playGame(Conn conn, int me, String played) throws IOException {
+            board.reset();
+            for (int i = 0; i < played.length(); i++) {
+                board.play(played.charAt(i) - '0');
+            }
+            long sent = 0;
+            if (board.playerToMove() == me) sent = move(conn);
+            while (true) {
+                Object msg = conn.read();
+                if (!(msg instanceof GameEvent ge)) {
+                    if (msg instanceof ChatMessage) chats.increment();
+                    continue;
+                }
+                switch (ge.getType()) {
+                    case MOVE -> {
+                        long now = System.nanoTime();
+                        if (sent != 0) roundTrip.record(now - sent - TimeUnit.MILLISECONDS.toNanos(THINK_MILLIS));
+                        Player opponent = players.get(ge.getMovingPlayer());
+                        if (opponent != null) relay.record(now - opponent.movedAt);
+                        board.play(ge.getColumn());
+                        if (board.lastMoveWon() || board.isFull()) continue; // the result is on its way
+                        sent = move(conn);
+                    }
+                    case WIN, DRAW -> {
+                        games.increment();
+                        return;
+                    }
+                    default -> { }
+                }
+            }
+        }
+
+        private long move(Conn conn) throws IOException {
+            if (THINK_MILLIS > 0) {
+                try {
+                    Thread.sleep(THINK_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            int column = pick();
+            board.play(column);
+            movedAt = System.nanoTime();
+            conn.send(new GameEvent(GameEvent.Type.MOVE, column, name));
+            moves.increment();
+            if (ThreadLocalRandom.current().nextDouble() < CHAT) {
+                conn.send(new ChatMessage(name, "gl hf", 0));
+            }
+            return movedAt;
+        }
+
+        private int pick() {
+            int n = board.moves();
+            if (SCRIPT != null && n < SCRIPT.length && board.canPlay(SCRIPT[n])) {
+                return SCRIPT[n];
+            }
+            while (true) {
+                int column = ThreadLocalRandom.current().nextInt(BitBoard.WIDTH);
+                if (board.canPlay(column)) return column;
+            }
+        }
+    }
+
+    private static final class Conn {
+        final Socket sock;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Conn(Socket sock) throws IOException {
+            this.sock = sock;
+            sock.setSoTimeout(READ_TIMEOUT_MS);
+            sock.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+        }
+
+        void send(Object msg) throws IOException {
+            Protocol.write(out, msg);
+            out.flush();
+        }
+
+        Object read() throws IOException {
+            return Protocol.read(in);
+        }
+
+        void close() {
+            try {
+                sock.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void error(String kind) {
+        errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+    }
+
+    private static long errorCount() {
+        return errors.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    private static int[] script(String columns) {
+        if (columns == null || columns.isBlank()) return null;
+        String[] parts = columns.split(",");
+        int[] script = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            script[i] = Integer.parseInt(parts[i].trim());
+        }
+        return script;
+    }
+}
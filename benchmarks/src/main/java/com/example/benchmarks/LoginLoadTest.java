@@ -0,0 +1,136 @@
+package com.example.benchmarks;
+
+import com.example.common.LoginRequest;
+import com.example.common.LoginResult;
+import com.example.common.Protocol;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Logs N players into an in-process server and leaves their sockets idle, then
+ * reports login throughput and the memory each idle connection costs.
+ *
+ * <pre>java -cp benchmarks/target/benchmarks.jar com.example.benchmarks.LoginLoadTest [blocking|virtual|nio] [connections] [concurrency]</pre>
+ *
+ * Uses a throwaway database, so it can be pointed at any mode without touching
+ * connect4.db. RSS includes both ends of every socket since the clients live in
+ * the same JVM; the client side is one Socket per player and no threads.
+ */
+public class LoginLoadTest {
+
+    public static void main(String[] args) throws Throwable {
+        String mode = args.length > 0 ? args[0] : "virtual";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        Path db = Files.createTempFile("connect4-load", ".db");
+        System.setProperty("connect4.db", db.toString());
+        PrintStream console = System.out;
+        ServerClasses.quiet(); // the server logs a line per sign-up, login and disconnect
+        ServerClasses.call("Database", "connect");
+        MethodHandle insertUser = ServerClasses.stringStatic("Database", "insertUser");
+        for (int i = 0; i < count; i++) {
+            String status = (String) insertUser.invokeExact("load" + i, "pw");
+            if (!"SUCCESS".equals(status)) throw new IllegalStateException(status);
+        }
+
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        ServerClasses.SERVER.getMethod("start").invoke(ServerClasses.server(mode, port));
+
+        settle();
+        long heapBefore = usedHeap();
+        long rssBefore = rss();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        List<Socket> idle = new CopyOnWriteArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(concurrency);
+        long t0 = System.nanoTime();
+        try (ExecutorService exec = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < count; i++) {
+                String user = "load" + i;
+                inFlight.acquire();
+                exec.execute(() -> {
+                    try {
+                        idle.add(login(port, user));
+                    } catch (IOException e) {
+                        if (failures.incrementAndGet() == 1) {
+                            System.err.println("first failure: " + e);
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        long elapsed = System.nanoTime() - t0;
+
+        settle();
+        long heapAfter = usedHeap();
+        long rssAfter = rss();
+        int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        int ok = idle.size();
+        console.printf("mode=%s connections=%d failures=%d%n", mode, ok, failures.get());
+        console.printf("logins/s        %.0f%n", ok / (elapsed / 1e9));
+        console.printf("heap/conn       %.1f KB%n", (heapAfter - heapBefore) / 1024.0 / ok);
+        console.printf("rss/conn        %.1f KB%n", (rssAfter - rssBefore) / 1024.0 / ok);
+        console.printf("platform threads +%d%n", threadsAfter - threadsBefore);
+
+        for (Socket s : idle) {
+            s.close();
+        }
+        Files.deleteIfExists(db);
+        System.exit(0);
+    }
+
+    private static Socket login(int port, String user) throws IOException {
+        Socket sock = new Socket("localhost", port);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+        DataInputStream in = new DataInputStream(sock.getInputStream());
+        Protocol.write(out, new LoginRequest(false, user, "pw"));
+        out.flush();
+        LoginResult reply = (LoginResult) Protocol.read(in);
+        if (!reply.ok()) {
+            sock.close();
+            throw new IOException(user + ": " + reply.status());
+        }
+        return sock;
+    }
+
+    private static void settle() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // resident set size from /proc; 0 where that is not available
+    private static long rss() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        return 0;
+    }
+}
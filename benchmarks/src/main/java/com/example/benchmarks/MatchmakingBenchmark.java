@@ -0,0 +1,69 @@
+package com.example.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pairing two players, in the casual queue and in the ranked one. The games
+ * themselves are not started, the matchmakers only count their pairs, so
+ * this is the queue's own cost. The ranked queue can be
+ * pre-filled with players whose ratings are too far apart to pair, the
+ * way it looks at a busy hour. With 50,000 waiting, a pair should still
+ * take well under a millisecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-XX:+UseParallelGC")
+public class MatchmakingBenchmark {
+    private static final MethodHandle ENQUEUE = ServerClasses.method(
+            ServerClasses.load("Matchmaker"), "enqueue", ServerClasses.CLIENT_HANDLER);
+    private static final MethodHandle ENQUEUE_RANKED = ServerClasses.method(
+            ServerClasses.load("RankedMatchmaker"), "enqueue", ServerClasses.CLIENT_HANDLER, int.class);
+
+    // players already waiting in the ranked queue, none of them a match for each other or the pair
+    @Param({"0", "1000", "50000"})
+    int waiting;
+
+    private Object casual;
+    private Object ranked;
+    private Object alice;
+    private Object bob;
+    private int pairs;
+
+    @Setup
+    public void setUp() throws Throwable {
+        ServerClasses.quiet();
+        Object server = ServerClasses.server();
+        casual = ServerClasses.matchmaker("Matchmaker", (p1, p2) -> pairs++);
+        ranked = ServerClasses.matchmaker("RankedMatchmaker", (p1, p2) -> pairs++);
+        alice = ServerClasses.player(server, "alice");
+        bob = ServerClasses.player(server, "bob");
+        for (int i = 0; i < waiting; i++) {
+            // a thousand points apart, far outside even a fully widened window
+            int rating = i % 2 == 0 ? -1000 * (i + 1) : 1000 * (i + 2);
+            ENQUEUE_RANKED.invokeExact(ranked, ServerClasses.player(server, "waiting" + i), rating);
+        }
+    }
+
+    @TearDown
+    public void check() {
+        if (pairs == 0) throw new IllegalStateException("no pairs were made");
+    }
+
+    @Benchmark
+    public void casualPair() throws Throwable {
+        ENQUEUE.invokeExact(casual, alice);
+        ENQUEUE.invokeExact(casual, bob);
+    }
+
+    @Benchmark
+    public void rankedPair() throws Throwable {
+        ENQUEUE_RANKED.invokeExact(ranked, alice, 1000);
+        ENQUEUE_RANKED.invokeExact(ranked, bob, 1020);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sign-ups and logins through Database against a throwaway SQLite file,
+ * with the server's own pool and user cache in front of it. A login for a
+ * known player is a cache hit; one for an unknown name goes to the file
+ * every time, which is the cost a mistyped name puts on the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-XX:+UseParallelGC")
+public class PersistenceBenchmark {
+    private Path dir;
+    private MethodHandle loginUser;
+    private MethodHandle insertUser;
+
+    @State(Scope.Thread)
+    public static class Names {
+        private static int threads;
+        private final String prefix;
+        private int next;
+
+        public Names() {
+            synchronized (Names.class) {
+                prefix = "bench" + threads++ + "_";
+            }
+        }
+
+        String next() {
+            return prefix + next++;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        ServerClasses.quiet();
+        dir = Files.createTempDirectory("connect4-bench");
+        // read once, when Database is first loaded
+        System.setProperty("connect4.db", dir.resolve("bench.db").toString());
+        insertUser = ServerClasses.stringStatic("Database", "insertUser");
+        loginUser = ServerClasses.stringStatic("Database", "loginUser");
+        ServerClasses.load("Database").getMethod("connect").invoke(null);
+        String status = (String) insertUser.invokeExact("known", "pw");
+        if (!"SUCCESS".equals(status)) throw new IllegalStateException(status);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        ServerClasses.load("Database").getMethod("close").invoke(null);
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(p);
+            }
+        } catch (IOException ignored) {
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public String insertUser(Names names) throws Throwable {
+        return (String) insertUser.invokeExact(names.next(), "pw");
+    }
+
+    @Benchmark
+    public String loginKnown() throws Throwable {
+        return (String) loginUser.invokeExact("known", "pw");
+    }
+
+    @Benchmark
+    public String loginUnknown() throws Throwable {
+        return (String) loginUser.invokeExact("nobody", "pw");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String loginKnownContended() throws Throwable {
+        return (String) loginUser.invokeExact("known", "pw");
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.benchmarks;
+
+import com.example.common.ChatMessage;
+import com.example.common.GameEvent;
+import com.example.common.Protocol;
+
+import java.io.*;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the binary codec with the Java serialization path it replaced
+ * (one long-lived ObjectOutputStream per connection, never reset): bytes on
+ * the wire and encode/decode time per message. Every iteration sends a fresh
+ * object, as the server does, so serialization cannot shortcut to a handle.
+ * The messages are no longer Serializable themselves; the serialization
+ * side writes their {@link LegacyMessages} copies.
+ * {@link CodecBenchmark} times the codec under JMH; this is the side-by-side
+ * table of sizes.
+ *
+ * <pre>java -cp benchmarks/target/benchmarks.jar com.example.benchmarks.ProtocolBenchmark [iterations]</pre>
+ */
+public class ProtocolBenchmark {
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        @SuppressWarnings("unchecked")
+        IntFunction<Object>[] samples = new IntFunction[]{
+                i -> new GameEvent(GameEvent.Type.MOVE, i % 7, "alice"),
+                i -> new GameEvent(GameEvent.Type.START, "bob", "/planets/mars.png", 2),
+                i -> new GameEvent(GameEvent.Type.WIN, "alice"),
+                i -> new ChatMessage("alice", "good game!", 1),
+        };
+        String[] names = {"MOVE", "START", "WIN", "CHAT"};
+
+        System.out.printf("%-6s %12s %12s %10s %12s %12s %12s %12s%n",
+                "msg", "ser first B", "ser steady B", "codec B",
+                "ser enc ns", "codec enc ns", "ser dec ns", "codec dec ns");
+        for (int i = 0; i < samples.length; i++) {
+            IntFunction<Object> msg = samples[i];
+            for (int round = 0; round < 2; round++) { // first round is warm-up
+                long[] ser = serialization(n -> LegacyMessages.of(msg.apply(n)), iterations);
+                long[] codec = codec(msg, iterations);
+                if (round == 1) {
+                    System.out.printf("%-6s %12d %12d %10d %12.0f %12.0f %12.0f %12.0f%n",
+                            names[i], ser[0], ser[1], codec[0],
+                            ser[2] / (double) iterations, codec[2] / (double) iterations,
+                            ser[3] / (double) iterations, codec[3] / (double) iterations);
+                }
+            }
+        }
+        if (sink == 42) System.out.println();
+    }
+
+    // {first message bytes, steady-state bytes per message, encode ns, decode ns}
+    private static long[] serialization(IntFunction<Object> msg, int n) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(n * 64);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        int header = bytes.size();
+        out.writeObject(msg.apply(0));
+        out.flush();
+        long first = bytes.size() - header;
+        int afterFirst = bytes.size();
+
+        long t0 = System.nanoTime();
+        for (int i = 1; i < n; i++) {
+            out.writeObject(msg.apply(i));
+            out.flush();
+        }
+        long encode = System.nanoTime() - t0;
+        long steady = (bytes.size() - afterFirst) / (n - 1);
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        in.readObject();
+        t0 = System.nanoTime();
+        for (int i = 1; i < n; i++) {
+            sink += in.readObject().hashCode();
+        }
+        long decode = System.nanoTime() - t0;
+        return new long[]{first, steady, encode, decode};
+    }
+
+    private static long[] codec(IntFunction<Object> msg, int n) throws IOException {
+        byte[] frame = Protocol.encode(msg.apply(0));
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            sink += Protocol.encode(msg.apply(i)).length;
+        }
+        long encode = System.nanoTime() - t0;
+
+        t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            sink += Protocol.decode(frame, Protocol.HEADER, frame.length - Protocol.HEADER).hashCode();
+        }
+        long decode = System.nanoTime() - t0;
+        return new long[]{frame.length, frame.length, encode, decode};
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.function.BiConsumer;
+
+/**
+ * The server's classes live in the unnamed package, which Java code in a
+ * named package cannot import and JMH will not generate benchmarks into.
+ * They are looked up by name here instead, once, as method handles, which
+ * the JIT inlines like direct calls once they are constants.
+ */
+final class ServerClasses {
+    static final Class<?> SERVER = load("Server");
+    static final Class<?> CLIENT_HANDLER = load("Server$ClientHandler");
+    static final Class<?> PLAYER_CONNECTION = load("PlayerConnection");
+
+    private ServerClasses() {}
+
+    static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("The server module is not on the classpath", e);
+        }
+    }
+
+    /** A public static String method taking two Strings, such as the Database calls. */
+    static MethodHandle stringStatic(String className, String method) {
+        try {
+            return MethodHandles.publicLookup().findStatic(load(className), method,
+                    MethodType.methodType(String.class, String.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** A void instance method, with its receiver and reference arguments widened to Object. */
+    static MethodHandle method(Class<?> owner, String name, Class<?>... params) {
+        try {
+            MethodHandle mh = MethodHandles.publicLookup().findVirtual(owner, name, MethodType.methodType(void.class, params));
+            return mh.asType(mh.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** A matchmaker that hands its pairs to the given callback rather than starting games. */
+    static Object matchmaker(String className, BiConsumer<Object, Object> startGame) {
+        try {
+            return load(className).getConstructor(BiConsumer.class).newInstance(startGame);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** A logged-in player on a connection that throws away everything written to it. */
+    static Object player(Object server, String name) {
+        Object conn = Proxy.newProxyInstance(ServerClasses.class.getClassLoader(), new Class<?>[] {PLAYER_CONNECTION},
+                (proxy, m, args) -> switch (m.getName()) {
+                    case "writable" -> true;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "connection of " + name;
+                    default -> null;
+                });
+        try {
+            Constructor<?> c = CLIENT_HANDLER.getDeclaredConstructor(SERVER, PLAYER_CONNECTION, String.class);
+            c.setAccessible(true);
+            return c.newInstance(server, conn, name);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Object server() {
+        return server("virtual", 0);
+    }
+
+    /** A server that has not been started; mode is blocking, virtual or nio. */
+    static Object server(String mode, int port) {
+        try {
+            return SERVER.getConstructor(String.class, int.class).newInstance(mode, port);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Calls a static method that takes no arguments, public or not, such as Database.connect. */
+    static Object call(String className, String method) {
+        try {
+            Method m = load(className).getDeclaredMethod(method);
+            m.setAccessible(true);
+            return m.invoke(null);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** The server logs every sign-up and queued player; at benchmark rates that is all the run would measure. */
+    static void quiet() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
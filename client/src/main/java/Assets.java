@@ -0,0 +1,117 @@
+import javafx.scene.image.Image;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Every image the client shows, decoded once and shared by all scenes.
+ *
+ * <p>{@link #preload()} decodes the lot on a background thread at startup,
+ * so building a scene on the FX thread only looks images up. Asking for one
+ * the preloader has not reached yet decodes it on the spot; asking for one
+ * it is decoding waits for that instead of decoding it twice.
+ *
+ * <p>Images are decoded at the size they are shown at, not the size of the
+ * file: a 1000px planet drawn in an 80px circle costs 40KB rather than 4MB.
+ * The same path at two sizes is two entries.
+ */
+public final class Assets {
+    // what the planets are drawn at: board pieces, the turn indicator and the planet picker
+    public static final double PLANET = 100;
+    // the width the menu buttons are drawn at
+    public static final double BUTTON = 200;
+    // the window's width, the widest anything is drawn
+    public static final double SCENE_WIDTH = 700;
+
+    public static final String BACKGROUND = "/planets/galaxy.jpg";
+    public static final String TITLE = "/planets/MAIN-TITLE.png";
+    public static final List<String> PLANETS =
+            List.of("Mercury", "Venus", "Earth", "Mars", "Jupiter", "Saturn", "Uranus", "Neptune");
+    private static final List<String> BUTTONS = List.of("play", "ranked-mode", "select-player", "back", "quit",
+            "log-in", "sign-in", "x");
+
+    private static final Map<String, FutureTask<Image>> images = new ConcurrentHashMap<>();
+
+    private Assets() {}
+
+    public static String planetPath(String planet) {
+        return "/planets/" + planet.toLowerCase() + ".png";
+    }
+
+    public static String planetTitlePath(String planet) {
+        return "/planets/" + planet.toLowerCase() + "-title.png";
+    }
+
+    public static String buttonPath(String button) {
+        return "/buttons/" + button + ".png";
+    }
+
+    /** The image at the size of its file. */
+    public static Image get(String path) {
+        return get(path, 0, 0);
+    }
+
+    /** The image scaled to fit inside width by height, keeping its shape; 0 leaves that side free. */
+    public static Image get(String path, double width, double height) {
+        FutureTask<Image> task = images.computeIfAbsent(path + "@" + width + "x" + height,
+                k -> new FutureTask<>(() -> decode(path, width, height)));
+        task.run(); // no-op if the preloader has it or has already decoded it
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted loading " + path, e);
+        } catch (ExecutionException e) {
+            images.remove(path + "@" + width + "x" + height, task); // let a later call try again
+            throw e.getCause() instanceof RuntimeException re ? re : new IllegalStateException(e.getCause());
+        }
+    }
+
+    /** Starts decoding everything in the order the screens need it, login first. Needs the FX toolkit running. */
+    public static void preload() {
+        List<Runnable> work = new ArrayList<>();
+        work.add(() -> get(BACKGROUND));
+        for (String button : BUTTONS) {
+            work.add(() -> get(buttonPath(button), BUTTON, 0));
+        }
+        work.add(() -> get("/buttons/eye-crossed.png", 24, 24));
+        work.add(() -> get("/buttons/eye-open.png", 24, 24));
+        work.add(() -> get(TITLE, 600, 0));
+        for (String planet : PLANETS) {
+            work.add(() -> get(planetPath(planet), PLANET, PLANET));
+            work.add(() -> get(planetTitlePath(planet), PLANET, 0));
+        }
+        work.add(() -> get("/win-lose/win.png", SCENE_WIDTH, 0));
+        work.add(() -> get("/win-lose/lose.png", SCENE_WIDTH, 0));
+
+        Thread t = new Thread(() -> {
+            for (Runnable r : work) {
+                try {
+                    r.run();
+                } catch (RuntimeException e) {
+                    System.out.println("Could not preload image: " + e.getMessage());
+                }
+            }
+        }, "assets");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    private static Image decode(String path, double width, double height) {
+        URL url = Assets.class.getResource(path);
+        if (url == null) {
+            throw new IllegalArgumentException("No image at " + path);
+        }
+        Image image = new Image(url.toExternalForm(), width, height, true, true);
+        if (image.isError()) {
+            throw new IllegalArgumentException("Cannot decode " + path, image.getException());
+        }
+        return image;
+    }
+}
@@ -1,9 +1,11 @@
 // Client.java
+import com.example.common.*;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Cursor;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.image.Image;
@@ -14,41 +16,57 @@ import javafx.stage.Stage;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.Map;
 
 public class Client extends Application {
     private Stage primaryStage;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
+    private DataInputStream in;
+    private DataOutputStream out;
+    // the shard the current game was sent to, if the server is a router; null otherwise
+    private volatile Socket shard;
+    private volatile DataOutputStream gameOut;
     private int playerId;
     private String playerName;
     private boolean listenerStarted = false;
+    private boolean spectating;
+
+    // after login there is one scene; moving between screens swaps what it shows
+    private final StackPane shell = new StackPane();
+    private Scene mainScene;
+    private final UiStats uiStats = new UiStats();
+    // each screen is built the first time it is shown and kept for the session
+    private Node menuView, selectPlayerView;
+    private BorderPane gameView;
+    private VBox endView;
+    private Label endMessage;
+    private ImageView endArt;
 
     private GameBoard board;
     private ListView<Label> chatList;
     private TextField chatInput;
+    private HBox chatRow;
+    // lobby and friends chat, kept while the player is in a game
+    private final ListView<Label> lobbyList = new ListView<>();
+    // friends who are online, asked for whenever the menu comes up or the list is edited
+    private final ListView<String> friendsList = new ListView<>();
 
     private String myPlanetPath  = "/planets/earth.png";
 
     private Image myPieceImage;
 
-    private final Image backgroundImage =
-            new Image(getClass().getResourceAsStream("/planets/galaxy.jpg"));
-    private final Image titleImage =
-            new Image(getClass().getResourceAsStream("/planets/MAIN-TITLE.png"));
+    // every scene's backdrop; the rest of the art is looked up in Assets as scenes are built
+    private Image backgroundImage;
 
-    // button art now in /buttons
-    private final Image playImg   = new Image(getClass().getResourceAsStream("/buttons/play.png"));
-    private final Image selectImg = new Image(getClass().getResourceAsStream("/buttons/select-player.png"));
-    private final Image backImg   = new Image(getClass().getResourceAsStream("/buttons/back.png"));
-    private final Image quitImg   = new Image(getClass().getResourceAsStream("/buttons/quit.png"));
-    private final Image loginImg = new Image(getClass().getResourceAsStream("/buttons/log-in.png"));
-    private final Image signupImg = new Image(getClass().getResourceAsStream("/buttons/sign-in.png"));
 
+    // runs off the FX thread once the toolkit is up, which decoding an Image needs
+    @Override
+    public void init() {
+        Assets.preload();
+    }
 
     @Override
     public void start(Stage stage) {
         this.primaryStage = stage;
+        backgroundImage = Assets.get(Assets.BACKGROUND); // first in line for the preloader
         stage.setTitle("Connect Four");
         stage.setScene(createLoginScene());
         stage.show();
@@ -67,18 +85,18 @@ public class Client extends Application {
 
         final boolean[] login = {false};
 
-        ImageView signupView = new ImageView(signupImg);
+        ImageView signupView = new ImageView(button("sign-in"));
         signupView.setPreserveRatio(true);
         signupView.setFitHeight(60);
         signupView.setCursor(Cursor.HAND);
 
-        ImageView loginView = new ImageView(loginImg);
+        ImageView loginView = new ImageView(button("log-in"));
         loginView.setPreserveRatio(true);
         loginView.setFitHeight(60);
         loginView.setCursor(Cursor.HAND);
 
-        Image eyeCross = new Image(getClass().getResourceAsStream("/buttons/eye-crossed.png"));
-        Image eyeOpen = new Image(getClass().getResourceAsStream("/buttons/eye-open.png"));
+        Image eyeCross = Assets.get("/buttons/eye-crossed.png", 24, 24);
+        Image eyeOpen = Assets.get("/buttons/eye-open.png", 24, 24);
 
         // Container that holds the currently visible image
         StackPane togglePane = new StackPane(signupView); // Start with signup
@@ -144,25 +162,23 @@ public class Client extends Application {
             }
             try {
                 Socket sock = new Socket("localhost", 5555);
-                out = new ObjectOutputStream(sock.getOutputStream());
-                in = new ObjectInputStream(sock.getInputStream());
-                out.writeObject(login[0] ? "Login" : "Sign-up");
-                out.writeObject(username);
-                out.writeObject(password);
-                out.flush();
-
-                Object response = in.readObject();
-                System.out.println("Received: " + response);
-                if ("SUCCESS".equals(response)) {
+                out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+                in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+                send(new LoginRequest(!login[0], username, password));
+
+                LoginResult response = (LoginResult) Protocol.read(in);
+                System.out.println("Received: " + response.status());
+                if (response.ok()) {
                     playerName = username;
-                    primaryStage.setScene(createMenuScene());
+                    showMenu();
                     primaryStage.setTitle("Connect Four – " + playerName);
                     if (!listenerStarted) {
-                        startListener();
+                        startListener(in);
                         listenerStarted = true;
                     }
+                    send(new ChatChannel(ChatChannel.Op.JOIN, ChatMessage.LOBBY));
                 } else {
-                    feedbackLabel.setText((String) response);
+                    feedbackLabel.setText(response.status());
                     in.close();
                     out.close();
                     sock.close();
@@ -177,11 +193,15 @@ public class Client extends Application {
         return new Scene(root, 600, 600);
     }
 
-    private void startListener() {
+    private void startListener(DataInputStream in) {
         Thread t = new Thread(() -> {
             try {
                 while (true) {
-                    Object msg = in.readObject();
+                    Object msg = Protocol.read(in);
+                    if (msg instanceof Redirect redirect) { // the game is on a shard: play it over a second connection
+                        joinShard(redirect);
+                        continue;
+                    }
                     Platform.runLater(() -> {
                         if (msg instanceof GameEvent ge) {
                             switch (ge.getType()) {
@@ -189,16 +209,40 @@ public class Client extends Application {
                                 case MOVE  -> { board.placePiece(ge.getMovingPlayer(), ge.getColumn()); board.onYourTurnEnd(); }
                                 case WIN   -> {
                                     boolean iWon = ge.getWinningPlayer().equals(playerName);
-                                    primaryStage.setScene(createEndScene(iWon));
+                                    showEnd(iWon, spectating ? ge.getWinningPlayer() + " won!" : null);
+                                    leaveShard();
+                                }
+                                case DRAW  -> {
+                                    showEnd(false, "It's a draw!");
+                                    leaveShard();
                                 }
                             }
                         } else if (msg instanceof ChatMessage cm) {
-                            writeToChat(cm.getSender(), cm.getMessage());
+                            if (cm.getChannel() == null) {
+                                writeToChat(cm.getSender(), cm.getMessage());
+                            } else {
+                                writeToLobby(cm);
+                            }
+                        } else if (msg instanceof Invite invite) {
+                            showInvite(invite);
+                        } else if (msg instanceof FriendList friendList) {
+                            friendsList.getItems().setAll(friendList.online());
+                        } else if (msg instanceof Snapshot snapshot) { // logged back in to a running game
+                            myPlanetPath = snapshot.planetPath();
+                            startGame(new GameEvent(GameEvent.Type.START, snapshot.opponent(), snapshot.opponentPlanet(), snapshot.playerId()));
+                            board.restore(snapshot.moves());
+                        } else if (msg instanceof Spectate spectate) { // watching, or caught up after falling behind
+                            watchGame(spectate);
+                        } else if (msg instanceof Watch watch) {
+                            new Alert(Alert.AlertType.INFORMATION, watch.player() + " is not in a game.").show();
+                        } else if (msg instanceof Hint hint) {
+                            writeToChat("Hint", hint.column() >= 0 ? "try column " + (hint.column() + 1)
+                                    : "no hint for this position");
                         }
                     });
                 }
             } catch (Exception ex) {
-                ex.printStackTrace();
+                if (in == this.in) ex.printStackTrace(); // a shard connection just ends with its game
             }
         });
         t.setDaemon(true);
@@ -206,16 +250,66 @@ public class Client extends Application {
 
     }
 
+    // logs in to the shard with the router's ticket; the game then arrives on that connection
+    private void joinShard(Redirect redirect) {
+        try {
+            leaveShard();
+            Socket sock = new Socket(redirect.host(), redirect.port());
+            DataOutputStream shardOut = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+            DataInputStream shardIn = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+            Protocol.write(shardOut, new LoginRequest(false, playerName, redirect.token()));
+            shardOut.flush();
+            LoginResult result = (LoginResult) Protocol.read(shardIn);
+            if (!result.ok()) { // a game we dropped out of has ended meanwhile
+                System.out.println("Shard " + redirect.host() + ":" + redirect.port() + ": " + result.status());
+                sock.close();
+                return;
+            }
+            shard = sock;
+            gameOut = shardOut;
+            startListener(shardIn);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void leaveShard() {
+        Socket sock = shard;
+        if (sock == null) return;
+        shard = null;
+        gameOut = null;
+        try {
+            sock.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
     private void startGame(GameEvent startInfo) {
+        uiStats.begin("game");
+        spectating = false;
+        if (gameView == null) createGameView();
         if (startInfo.getPlayerId() == 1) {
-            board = new GameBoard(playerName, playerName, startInfo.getOpponent(), myPlanetPath, startInfo.getPlanetPath(), this::sendMove);
+            board.reset(playerName, playerName, startInfo.getOpponent(), myPlanetPath, startInfo.getPlanetPath());
             playerId = 1;
         } else {
-            board = new GameBoard(playerName, startInfo.getOpponent(), playerName, startInfo.getPlanetPath(), myPlanetPath, this::sendMove);
+            board.reset(playerName, startInfo.getOpponent(), playerName, startInfo.getPlanetPath(), myPlanetPath);
             playerId = 2;
         }
         primaryStage.setTitle("Connect Four: " + (playerId == 1 ? playerName : startInfo.getOpponent()) + " vs " + (playerId == 1 ? startInfo.getOpponent() : playerName));
 
+        chatList.getItems().clear();
+        chatInput.clear();
+        chatRow.setVisible(true);
+        chatRow.setManaged(true);
+        uiStats.gameStarted();
+        show(gameView);
+    }
+
+    // the board and the game chat, with the chat pane built once and cleared for each game
+    private void createGameView() {
+        board = new GameBoard(this::sendMove);
+
         chatList = new ListView<>();
         chatList.setPrefHeight(150);
         chatList.setFocusTraversable(false);
@@ -225,16 +319,22 @@ public class Client extends Application {
             String text = chatInput.getText().trim();
             if (!text.isEmpty()) {
                 try {
-                    writeToChat(playerName, text);
-                    out.writeObject(new ChatMessage(playerName, text, playerId));
-                    out.flush();
+                    send(new ChatMessage(playerName, text, playerId));
                     chatInput.clear();
                 } catch (IOException ex) {
                     ex.printStackTrace();
                 }
             }
         });
-        HBox chatRow = new HBox(10, chatInput);
+        Button hintButton = new Button("Hint");
+        hintButton.setOnAction(e -> {
+            try {
+                send(new Hint(-1));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+        chatRow = new HBox(10, chatInput, hintButton);
         HBox.setHgrow(chatInput, Priority.ALWAYS);
         chatRow.setPadding(new Insets(10));
         chatRow.setStyle("-fx-background-color: rgba(0,0,0,0.4); -fx-text-fill: white;");
@@ -242,89 +342,188 @@ public class Client extends Application {
         VBox chatBox = new VBox(5, chatList, chatRow);
         chatBox.setPrefHeight(225);
 
-        BorderPane root = new BorderPane();
-        root.setCenter(board.getRoot()); root.setBottom(chatBox);
-        root.setBackground(new Background(new BackgroundImage(
-                backgroundImage, BackgroundRepeat.NO_REPEAT, BackgroundRepeat.NO_REPEAT, BackgroundPosition.CENTER, new BackgroundSize(1,1,true,true,false,true)
-        )));
-        primaryStage.setScene(new Scene(root, 700, 800));
+        gameView = new BorderPane();
+        gameView.setCenter(board.getRoot()); gameView.setBottom(chatBox);
     }
 
+    /** Puts a screen in the window. The first one after login also puts up the scene they all share. */
+    private void show(Node view) {
+        if (mainScene == null) {
+            shell.setBackground(new Background(new BackgroundImage(
+                    backgroundImage, BackgroundRepeat.NO_REPEAT, BackgroundRepeat.NO_REPEAT, BackgroundPosition.CENTER, new BackgroundSize(1,1,true,true,false,true)
+            )));
+            mainScene = new Scene(shell, 700, 800);
+            mainScene.addPostLayoutPulseListener(uiStats::laidOut);
+        }
+        shell.getChildren().setAll(view);
+        if (primaryStage.getScene() != mainScene) {
+            primaryStage.setScene(mainScene);
+        }
+    }
+
+    private void showMenu() {
+        uiStats.begin("menu");
+        if (menuView == null) menuView = createMenuView();
+        show(menuView);
+        requestFriends();
+    }
 
-        private Scene createMenuScene() {
-        ImageView titleView = new ImageView(titleImage);
+        private Node createMenuView() {
+        ImageView titleView = new ImageView(Assets.get(Assets.TITLE, 600, 0));
         titleView.setPreserveRatio(true);
         titleView.setFitWidth(600);
 
-        ImageView playBtn = new ImageView(playImg);
+        ImageView playBtn = new ImageView(button("play"));
         playBtn.setCursor(Cursor.HAND);
         playBtn.setPreserveRatio(true);
         playBtn.setFitWidth(200);
         playBtn.setOnMouseClicked(e -> {
             try {
-                out.writeObject("Play"); out.flush();
-                out.writeObject(myPlanetPath); out.flush();
+                send(new PlayRequest(myPlanetPath, false));
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
         });
 
-        ImageView selBtn = new ImageView(selectImg);
+        ImageView rankedBtn = new ImageView(button("ranked-mode"));
+        rankedBtn.setCursor(Cursor.HAND);
+        rankedBtn.setPreserveRatio(true);
+        rankedBtn.setFitWidth(200);
+        rankedBtn.setOnMouseClicked(e -> {
+            try {
+                send(new PlayRequest(myPlanetPath, true));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+
+        ImageView selBtn = new ImageView(button("select-player"));
         selBtn.setCursor(Cursor.HAND);
         selBtn.setPreserveRatio(true);
         selBtn.setFitWidth(200);
         selBtn.setOnMouseClicked(e -> {
-            primaryStage.setScene(createSelectPlayerScene());
+            uiStats.begin("select");
+            if (selectPlayerView == null) selectPlayerView = createSelectPlayerView();
+            show(selectPlayerView);
             primaryStage.setTitle("Select Player");
         });
 
-        HBox buttonBox = new HBox(30, playBtn, selBtn);
+        HBox buttonBox = new HBox(30, playBtn, rankedBtn, selBtn);
         buttonBox.setAlignment(Pos.CENTER);
 
-        VBox menu = new VBox(40, titleView, buttonBox);
+        Button watchBtn = new Button("Watch a game");
+        watchBtn.setOnAction(e -> {
+            TextInputDialog dialog = new TextInputDialog();
+            dialog.setHeaderText("Whose game do you want to watch?");
+            dialog.showAndWait().map(String::trim).filter(name -> !name.isEmpty()).ifPresent(name -> {
+                try {
+                    send(new Watch(Watch.Op.START, name));
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            });
+        });
+
+        // "/f message" goes to online friends, anything else to the lobby
+        TextField lobbyInput = new TextField();
+        lobbyInput.setPromptText("Chat with the lobby, or /f to message friends...");
+        lobbyInput.setOnAction(e -> {
+            String text = lobbyInput.getText().trim();
+            boolean toFriends = text.startsWith("/f ");
+            if (toFriends) text = text.substring(3).trim();
+            if (!text.isEmpty()) {
+                try {
+                    send(new ChatMessage(playerName, text, 0, toFriends ? ChatMessage.FRIENDS : ChatMessage.LOBBY));
+                    lobbyInput.clear();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
+        lobbyList.setPrefHeight(150);
+        lobbyList.setFocusTraversable(false);
+        VBox lobbyBox = new VBox(5, lobbyList, lobbyInput);
+        HBox.setHgrow(lobbyBox, Priority.ALWAYS);
+
+        HBox socialBox = new HBox(20, lobbyBox, createFriendsBox());
+
+        VBox menu = new VBox(40, titleView, buttonBox, watchBtn, socialBox);
         menu.setAlignment(Pos.CENTER);
         menu.setPadding(new Insets(40));
-        menu.setBackground(new Background(new BackgroundImage(
-                backgroundImage,
-                BackgroundRepeat.NO_REPEAT, BackgroundRepeat.NO_REPEAT,
-                BackgroundPosition.CENTER,
-                new BackgroundSize(1,1,true,true,false,true)
-        )));
-        return new Scene(menu, 700, 800);
+        return menu;
     }
 
-    private Scene createSelectPlayerScene() {
-        Map<String,String> planets = Map.of(
-                "Mercury","/planets/mercury.png",
-                "Venus",  "/planets/venus.png",
-                "Earth",  "/planets/earth.png",
-                "Mars",   "/planets/mars.png",
-                "Jupiter","/planets/jupiter.png",
-                "Saturn", "/planets/saturn.png",
-                "Uranus", "/planets/uranus.png",
-                "Neptune","/planets/neptune.png"
-        );
+    // online friends with invite and refresh, and a name field to add or remove a friend
+    private Node createFriendsBox() {
+        Label title = new Label("Friends online");
+        title.setStyle("-fx-text-fill: white; -fx-font-weight: bold");
+        friendsList.setPrefSize(240, 150);
+        friendsList.setPlaceholder(new Label("No friends online"));
+
+        Button inviteBtn = new Button("Invite");
+        inviteBtn.disableProperty().bind(friendsList.getSelectionModel().selectedItemProperty().isNull());
+        inviteBtn.setOnAction(e -> {
+            try {
+                send(new Invite(Invite.Op.SEND, friendsList.getSelectionModel().getSelectedItem(), myPlanetPath));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+        Button refreshBtn = new Button("Refresh");
+        refreshBtn.setOnAction(e -> requestFriends());
+
+        TextField friendInput = new TextField();
+        friendInput.setPromptText("Username");
+        HBox.setHgrow(friendInput, Priority.ALWAYS);
+        Button addBtn = new Button("Add");
+        addBtn.setOnAction(e -> editFriends(FriendRequest.Op.ADD, friendInput));
+        Button removeBtn = new Button("Remove");
+        removeBtn.setOnAction(e -> editFriends(FriendRequest.Op.REMOVE, friendInput));
+
+        VBox box = new VBox(5, title, friendsList, new HBox(5, inviteBtn, refreshBtn),
+                new HBox(5, friendInput, addBtn, removeBtn));
+        box.setPrefWidth(240);
+        return box;
+    }
+
+    // the name typed in, or the selected friend if nothing is; the list is asked for again afterwards
+    private void editFriends(FriendRequest.Op op, TextField input) {
+        String name = input.getText().trim();
+        if (name.isEmpty()) name = friendsList.getSelectionModel().getSelectedItem();
+        if (name == null || name.isEmpty()) return;
+        try {
+            send(new FriendRequest(op, name), new FriendRequest(FriendRequest.Op.LIST, null));
+            input.clear();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void requestFriends() {
+        try {
+            send(new FriendRequest(FriendRequest.Op.LIST, null));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
 
+    private Node createSelectPlayerView() {
         GridPane grid = new GridPane();
         grid.setHgap(20); grid.setVgap(20);
         grid.setPadding(new Insets(30)); grid.setAlignment(Pos.CENTER);
 
-        ImageView currentView = new ImageView(new Image(
-                getClass().getResourceAsStream(myPlanetPath)));
+        ImageView currentView = new ImageView(Assets.get(myPlanetPath, Assets.PLANET, Assets.PLANET));
         currentView.setPreserveRatio(true); currentView.setFitWidth(100);
 
         int col=0, row=0;
-        for (Map.Entry<String,String> entry : planets.entrySet()) {
-            String name     = entry.getKey();
-            String iconPath = entry.getValue();
-            String titlePath= "/planets/" + name.toLowerCase() + "-title.png";
+        for (String name : Assets.PLANETS) {
+            String iconPath = Assets.planetPath(name);
+            String titlePath= Assets.planetTitlePath(name);
 
-            ImageView iconView  = new ImageView(new Image(
-                    getClass().getResourceAsStream(iconPath), 100,100,true,true));
+            ImageView iconView  = new ImageView(Assets.get(iconPath, Assets.PLANET, Assets.PLANET));
             iconView.setCursor(Cursor.HAND);
 
-            ImageView titleView = new ImageView(new Image(
-                    getClass().getResourceAsStream(titlePath)));
+            ImageView titleView = new ImageView(Assets.get(titlePath, Assets.PLANET, 0));
             titleView.setFitWidth(100);
             titleView.setPreserveRatio(true);
 
@@ -333,138 +532,135 @@ public class Client extends Application {
             cell.setCursor(Cursor.HAND);
             cell.setOnMouseClicked(e -> {
                 myPlanetPath = iconPath;
-                currentView.setImage(new Image(
-                        getClass().getResourceAsStream(iconPath)));
+                currentView.setImage(iconView.getImage());
             });
 
             grid.add(cell, col, row);
             if (++col == 4) { col = 0; row++; }
         }
 
-        ImageView backBtn = new ImageView(backImg);
+        ImageView backBtn = new ImageView(button("back"));
         backBtn.setCursor(Cursor.HAND);
         backBtn.setPreserveRatio(true);
         backBtn.setFitWidth(200);
-        backBtn.setOnMouseClicked(e -> primaryStage.setScene(createMenuScene()));
+        backBtn.setOnMouseClicked(e -> showMenu());
 
         VBox root = new VBox(20, currentView, grid, backBtn);
         root.setAlignment(Pos.CENTER); root.setPadding(new Insets(20));
-        root.setBackground(new Background(new BackgroundImage(
-                backgroundImage,
-                BackgroundRepeat.NO_REPEAT, BackgroundRepeat.NO_REPEAT,
-                BackgroundPosition.CENTER,
-                new BackgroundSize(1,1,true,true,false,true)
-        )));
-        return new Scene(root, 700, 700);
+        return root;
     }
 
 
-    private Scene createGameScene() throws Exception {
-
-        out.writeObject("Play");
-        out.flush();
-
-        out.writeObject(myPlanetPath);
-        out.flush();
+    private void watchGame(Spectate spectate) {
+        uiStats.begin("game");
+        spectating = true;
+        if (gameView == null) createGameView();
+        board.reset(playerName, spectate.player1(), spectate.player2(), spectate.planet1(), spectate.planet2());
+        board.restore(spectate.moves());
+        primaryStage.setTitle("Watching " + spectate.player1() + " vs " + spectate.player2());
 
-        GameEvent startInfo = (GameEvent) in.readObject();
-        playerId = startInfo.getPlayerId();
-        if(startInfo.getPlayerId() == 1){ //Your player1
-            board = new GameBoard(playerName,playerName,startInfo.getOpponent(),myPlanetPath,startInfo.getPlanetPath(),this::sendMove);
-            playerId = 1;
-            primaryStage.setTitle("Connect Four: " + playerName + " vs " + startInfo.getOpponent());
+        chatList.getItems().clear(); // the players' chat, read-only for spectators
+        chatRow.setVisible(false);
+        chatRow.setManaged(false);
+        uiStats.gameStarted();
+        show(gameView);
+    }
 
+    // message replaces the win/lose art: a draw, or who won a game we watched
+    private void showEnd(boolean won, String message) {
+        uiStats.gameEnded();
+        uiStats.begin("end");
+        if (endView == null) {
+            endMessage = new Label();
+            endMessage.setStyle("-fx-text-fill: white; -fx-font-weight: bold; -fx-font-size: 48");
+            endArt = new ImageView();
+            endArt.setPreserveRatio(true);
+
+            ImageView quitBtn = new ImageView(button("quit"));
+            quitBtn.setCursor(Cursor.HAND);
+            quitBtn.setFitWidth(200);
+            quitBtn.setPreserveRatio(true);
+            quitBtn.setOnMouseClicked(e -> showMenu());
+
+            endView = new VBox(20, endArt, quitBtn);
+            endView.setAlignment(Pos.CENTER);
+            endView.setPadding(new Insets(50));
         }
-        else { //Your player2
-            board = new GameBoard(playerName,startInfo.getOpponent(),playerName, startInfo.getPlanetPath(), myPlanetPath,this::sendMove);
-            playerId = 2;
-            primaryStage.setTitle("Connect Four: " + startInfo.getOpponent() + " vs " + playerName);
-
+        Node banner;
+        if (message != null) {
+            endMessage.setText(message);
+            banner = endMessage;
+        } else {
+            String path = won ? "/win-lose/win.png" : "/win-lose/lose.png";
+            endArt.setImage(Assets.get(path, Assets.SCENE_WIDTH, 0));
+            endArt.setFitWidth(primaryStage.getWidth() * 0.8);
+            banner = endArt;
         }
+        endView.getChildren().set(0, banner);
+        show(endView);
+    }
 
-        chatList = new ListView<>();
-        chatList.setPrefHeight(150);
-        chatList.setFocusTraversable(false);
+    private void sendMove(GameEvent ge) {
+        try {
+            send(ge);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        chatInput = new TextField();
-        chatInput.setPromptText("Enter your message...");
-        chatInput.setOnAction(e -> {
-            String text = chatInput.getText().trim();
-            if (!text.isEmpty()) {
-                try {
-                    writeToChat(playerName,text);
-                    out.writeObject(new ChatMessage(playerName, text,playerId));
-                    out.flush();
-                    chatInput.clear();
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+    // a friend invited us (SEND), or our invite was turned down (DECLINE)
+    private void showInvite(Invite invite) {
+        if (invite.op() == Invite.Op.DECLINE) {
+            new Alert(Alert.AlertType.INFORMATION, invite.player() + " can't play right now.").show();
+            return;
+        }
+        ButtonType accept = new ButtonType("Accept", ButtonBar.ButtonData.OK_DONE);
+        ButtonType decline = new ButtonType("Decline", ButtonBar.ButtonData.CANCEL_CLOSE);
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION, invite.player() + " invites you to a game.", accept, decline);
+        alert.setHeaderText(null);
+        alert.showAndWait().ifPresent(choice -> {
+            try {
+                send(new Invite(choice == accept ? Invite.Op.ACCEPT : Invite.Op.DECLINE, invite.player(), myPlanetPath));
+            } catch (IOException ex) {
+                ex.printStackTrace();
             }
         });
-
-        HBox chatRow = new HBox(10, chatInput);
-        HBox.setHgrow(chatInput, Priority.ALWAYS);
-        chatRow.setPadding(new Insets(10));
-        chatRow.setStyle("-fx-background-color: rgba(0, 0, 0, 0.4); -fx-text-fill: white;");
-
-        VBox chatBox = new VBox(5, chatList, chatRow);
-        chatBox.setPrefHeight(225);
-
-        BorderPane root = new BorderPane();
-        root.setCenter(board.getRoot());
-        root.setBottom(chatBox);
-        root.setBackground(new Background(new BackgroundImage(
-                backgroundImage,
-                BackgroundRepeat.NO_REPEAT, BackgroundRepeat.NO_REPEAT,
-                BackgroundPosition.CENTER,
-                new BackgroundSize(1,1,true,true,false,true)
-        )));
-
-        return new Scene(root, 700, 800);
     }
 
-
-    private Scene createEndScene(boolean won) {
-        String path = won ? "/win-lose/win.png" : "/win-lose/lose.png";
-        ImageView iv = new ImageView(new Image(getClass().getResourceAsStream(path)));
-        iv.setPreserveRatio(true);
-        iv.setFitWidth(primaryStage.getWidth() * 0.8);
-
-        ImageView quitBtn = new ImageView(quitImg);
-        quitBtn.setCursor(Cursor.HAND);
-        quitBtn.setFitWidth(200);
-        quitBtn.setPreserveRatio(true);
-        quitBtn.setOnMouseClicked(e -> primaryStage.setScene(createMenuScene()));
-
-        VBox root = new VBox(20, iv, quitBtn);
-        root.setAlignment(Pos.CENTER);
-        root.setPadding(new Insets(50));
-        root.setBackground(new Background(new BackgroundImage(
-                backgroundImage,
-                BackgroundRepeat.NO_REPEAT, BackgroundRepeat.NO_REPEAT,
-                BackgroundPosition.CENTER,
-                new BackgroundSize(1,1,true,true,false,true)
-        )));
-
-        return new Scene(root, 700, 800);
+    private void send(Object... msgs) throws IOException {
+        for (Object msg : msgs) {
+            DataOutputStream to = gameOut != null && forGame(msg) ? gameOut : out;
+            Protocol.write(to, msg);
+            to.flush();
+        }
     }
 
-    private void sendMove(GameEvent ge) {
-        try {
-            out.writeObject(ge);
-            out.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    // what goes to the shard while a game is played on one
+    private static boolean forGame(Object msg) {
+        return msg instanceof GameEvent || msg instanceof Hint
+                || msg instanceof ChatMessage cm && cm.getChannel() == null;
     }
 
     private void writeToChat(String sender, String message) {
+        if (chatList == null) return;
         Label lbl = new Label(sender+ ": " + message);
         lbl.setTextFill(sender.equals(playerName) && playerId == 0? Color.RED : Color.BLUE);
         chatList.getItems().add(lbl);
         chatList.scrollTo(chatList.getItems().size() - 1);
     }
 
+    private void writeToLobby(ChatMessage cm) {
+        String prefix = ChatMessage.FRIENDS.equals(cm.getChannel()) ? "[friends] " : "";
+        Label lbl = new Label(prefix + cm.getSender() + ": " + cm.getMessage());
+        lbl.setTextFill(cm.getSender().equals(playerName) ? Color.RED : Color.BLUE);
+        lobbyList.getItems().add(lbl);
+        lobbyList.scrollTo(lobbyList.getItems().size() - 1);
+    }
+
+
+    private static Image button(String name) {
+        return Assets.get(Assets.buttonPath(name), Assets.BUTTON, 0);
+    }
 
         public static void main(String[] args) {
         launch(args);
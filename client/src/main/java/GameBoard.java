@@ -1,4 +1,6 @@
 
+import com.example.common.BitBoard;
+import com.example.common.GameEvent;
 import javafx.geometry.Pos;
 import javafx.scene.Cursor;
 import javafx.scene.image.Image;
@@ -12,16 +14,29 @@ import javafx.scene.control.Label;
 import javafx.util.Duration;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Consumer;
 
+/**
+ * One game on screen. The position itself is a {@link BitBoard}, the same
+ * model the server plays on: where a stone lands and whether it wins are a
+ * few bit operations, and the circles below only ever show it. A move
+ * repaints its own cell and nothing else, with the planet patterns made
+ * once from the shared {@link Assets}.
+ *
+ * <p>The client keeps one board for the whole session: {@link #reset}
+ * empties it in place for the next game instead of building the 84
+ * circles, the grid and the timer again.
+ */
 public class GameBoard {
-    private static final int ROWS = 6, COLS = 7;
+    private static final int ROWS = BitBoard.HEIGHT, COLS = BitBoard.WIDTH;
     private final StackPane root = new StackPane();
     private final GridPane grid = new GridPane();
     private final BorderPane layoutPane = new BorderPane();
 
-    // 0 = empty, 1 = PLAYER1, 2 = PLAYER2
-    private final int[][] board = new int[ROWS][COLS];
+    // every move either player made, in order; player1 moved first
+    private final BitBoard model = new BitBoard();
 
     VBox leftBox;
     private final Circle[][] imageCircles = new Circle[ROWS][COLS];
@@ -35,27 +50,19 @@ public class GameBoard {
 
     private String player1, player2,currentPlayer, myUsername;
 
-    private Image player1Img, player2Img;
+    private ImagePattern player1Pattern, player2Pattern;
+    // one per planet image, shared by every game of the session
+    private static final Map<Image, ImagePattern> patterns = new HashMap<>();
     Consumer<GameEvent> moveSender;
 
     // semi-transparent tints
     private static final Color TINT_P1 = Color.rgb(255, 0, 0, 0.4);
     private static final Color TINT_P2 = Color.rgb(0, 0, 255, 0.4);
 
-    public GameBoard(String myUsername, String player1, String player2, String player1ImgPath,String player2ImgPath,Consumer<GameEvent> moveSender) {
-        this.myUsername = myUsername;
-        this.player1 = player1;
-        this.player2 = player2;
-        this.currentPlayer = player1;
-        this.myTurn = myUsername.equals(player1);
-
+    public GameBoard(Consumer<GameEvent> moveSender) {
         turnIndicator = new Circle(40); // radius
-        this.player1Img = new Image(getClass().getResourceAsStream(player1ImgPath));
-        this.player2Img = new Image(getClass().getResourceAsStream(player2ImgPath));
-
-        updateTurnIndicator();
 
-        ImageView surrenderX = new ImageView(new Image(getClass().getResourceAsStream("/buttons/x.png")));
+        ImageView surrenderX = new ImageView(Assets.get(Assets.buttonPath("x"), Assets.BUTTON, 0));
         surrenderX.setCursor(Cursor.HAND);
         surrenderX.setPreserveRatio(true);
         surrenderX.setFitWidth(60);
@@ -83,7 +90,7 @@ public class GameBoard {
             colBox.setOnMouseClicked(e -> {
                 if (!gameOver) {
                     try {
-                        processMove(myUsername,col,myUsername.equals(player1) ? 1 : 2);
+                        processMove(myUsername,col);
                     } catch (IOException ex) {
                         throw new RuntimeException(ex);
                     }
@@ -120,8 +127,39 @@ public class GameBoard {
         return root;
     }
 
+    /** Empties the board for a new game between these two; player1 moves first. */
+    public void reset(String myUsername, String player1, String player2, String player1ImgPath, String player2ImgPath) {
+        this.myUsername = myUsername;
+        this.player1 = player1;
+        this.player2 = player2;
+        this.currentPlayer = player1;
+        this.myTurn = myUsername.equals(player1);
+        this.gameOver = false;
+        this.player1Pattern = pattern(player1ImgPath);
+        this.player2Pattern = pattern(player2ImgPath);
+
+        // only the cells the last game filled need clearing
+        for (int c = 0; c < COLS; c++) {
+            for (int r = ROWS - model.height(c); r < ROWS; r++) {
+                imageCircles[r][c].setFill(Color.WHITE);
+                overlayCircles[r][c].setFill(Color.TRANSPARENT);
+            }
+        }
+        model.reset();
+
+        timer.stop();
+        timeLeft = 30;
+        timerLabel.setText("Time left: 0s");
+        timerLabel.setStyle("-fx-text-fill: white; -fx-font-weight: bold; -fx-font-size: 16");
+        updateTurnIndicator();
+    }
+
+    private static ImagePattern pattern(String path) {
+        return patterns.computeIfAbsent(Assets.get(path, Assets.PLANET, Assets.PLANET), ImagePattern::new);
+    }
+
     private void updateTurnIndicator() {
-        ImagePattern pattern = currentPlayer.equals(player1) ? new ImagePattern(player1Img) : new ImagePattern(player2Img);
+        ImagePattern pattern = currentPlayer.equals(player1) ? player1Pattern : player2Pattern;
         Color tint = currentPlayer.equals(player1) ? TINT_P1 : TINT_P2;
 
         turnIndicator.setFill(pattern);
@@ -133,64 +171,56 @@ public class GameBoard {
      * tinted red if PLAYER1, blue if PLAYER2.
      */
     public void placePiece ( String movingPlayer, int col){
-        ImagePattern pattern = new ImagePattern(movingPlayer.equals(player1) ? player1Img : player2Img);
-        Color tint = currentPlayer.equals(player1) ? TINT_P1 : TINT_P2;
-
-        for (int r = ROWS - 1; r >= 0; r--) {
-            if (imageCircles[r][col].getFill().equals(Color.WHITE)) {
-                imageCircles[r][col].setFill(pattern);
-                overlayCircles[r][col].setFill(tint);
+        if (!drop(col)) return;
 
-                if (!gameOver) {
-                    currentPlayer = movingPlayer.equals(player1) ? player2 : player1;
-                }
-                updateTurnIndicator();
-                onYourTurnStart();
-                break;
-            }
+        if (!gameOver) {
+            currentPlayer = movingPlayer.equals(player1) ? player2 : player1;
         }
+        updateTurnIndicator();
+        onYourTurnStart();
     }
 
-    public void processMove(String playerName, int column, int playerNum) throws IOException {
+    public void processMove(String playerName, int column) throws IOException {
 
         if (!playerName.equals(currentPlayer)) return;
-        int row = getAvailableRow(column);
-        if (row < 0) return; // full
-
-        board[row][column] = playerNum;
-        boolean win = checkWin(row, column, playerNum);
-
-        GameEvent ev;
-        if (win) {
-            ev = new GameEvent(GameEvent.Type.WIN, playerName);
-        } else {
-            ev = new GameEvent(GameEvent.Type.MOVE, column, playerName);
-            placePiece(playerName, column);
-        }
-        moveSender.accept(ev);
-    }
+        if (!model.canPlay(column)) return; // full
 
-    private int getAvailableRow(int col) {
-        for (int r = ROWS - 1; r >= 0; r--) {
-            if (board[r][col] == 0) return r;
-        }
-        return -1;
+        placePiece(playerName, column);
+        moveSender.accept(new GameEvent(GameEvent.Type.MOVE, column, playerName));
     }
 
-    private boolean checkWin(int row, int col, int player) {
-        return count(row, col, 0,1, player) + count(row, col, 0,-1, player) - 1 >= 4
-                || count(row, col, 1,0, player) + count(row, col, -1,0, player) - 1 >= 4
-                || count(row, col, 1,1, player) + count(row, col, -1,-1, player) - 1 >= 4
-                || count(row, col, 1,-1, player)+ count(row, col, -1,1, player) - 1 >= 4;
+    /** Puts back the pieces of a resumed game, one digit per move in the order they were played. */
+    public void restore(String moves) {
+        for (int i = 0; i < moves.length(); i++) {
+            drop(moves.charAt(i) - '0');
+        }
+        if (!moves.isEmpty()) {
+            if (!gameOver) {
+                currentPlayer = model.playerToMove() == 1 ? player1 : player2;
+            }
+            updateTurnIndicator();
+            onYourTurnStart();
+        }
+        if (!currentPlayer.equals(myUsername)) {
+            timer.pause();
+        }
     }
 
-    private int count(int r, int c, int dr, int dc, int p) {
-        int cnt = 0;
-        while (r >= 0 && r < ROWS && c >= 0 && c < COLS && board[r][c] == p) {
-            cnt++; r += dr; c += dc;
+    // plays the column on the model and paints the one cell it filled; false if the column is full
+    private boolean drop(int col) {
+        if (!model.canPlay(col)) return false;
+        int playerNum = model.playerToMove();
+        int row = ROWS - 1 - model.height(col); // the model counts rows from the bottom, the grid from the top
+        model.play(col);
+        // the server has the authoritative board and announces the WIN itself
+        if (model.lastMoveWon()) {
+            gameOver = true;
         }
-        return cnt;
+        imageCircles[row][col].setFill(playerNum == 1 ? player1Pattern : player2Pattern);
+        overlayCircles[row][col].setFill(playerNum == 1 ? TINT_P1 : TINT_P2);
+        return true;
     }
+
     /** you can leave your existing win-popup or swap in an end-scene */
     public void showWinMessage (String message){
         gameOver = true;
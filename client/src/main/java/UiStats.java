@@ -0,0 +1,95 @@
+import com.example.common.LatencyHistogram;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What moving between screens costs the FX thread. A transition is timed
+ * from the moment the client starts switching until the next pulse has laid
+ * the new screen out, which is when it can first be drawn. Each game also
+ * adds up what the FX thread allocated and how often the collector ran
+ * between its start and its end screen, and prints one line when it ends,
+ * followed by the transitions made since the previous game's.
+ *
+ * <p>Everything here runs on the FX thread.
+ */
+public class UiStats {
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private final Map<String, LatencyHistogram> transitions = new LinkedHashMap<>();
+    private final Map<String, Long> transitionBytes = new LinkedHashMap<>();
+    private String pending;
+    private long pendingSince;
+    private long pendingBytes;
+
+    private long gameBytes = -1;
+    private long gameCollections;
+    private long gameCollectionMillis;
+    private int games;
+
+    /** The client is about to switch to this screen. */
+    public void begin(String screen) {
+        pending = screen;
+        pendingSince = System.nanoTime();
+        pendingBytes = allocated();
+    }
+
+    /** Called after every layout pulse; closes the transition in progress, if any. */
+    public void laidOut() {
+        if (pending == null) return;
+        transitions.computeIfAbsent(pending, k -> new LatencyHistogram()).record(System.nanoTime() - pendingSince);
+        transitionBytes.merge(pending, allocated() - pendingBytes, Long::sum);
+        pending = null;
+    }
+
+    public void gameStarted() {
+        gameBytes = allocated();
+        gameCollections = collections();
+        gameCollectionMillis = collectionMillis();
+    }
+
+    public void gameEnded() {
+        if (gameBytes < 0) return;
+        games++;
+        System.out.printf("Game %d: %.1f MB allocated on the FX thread, %d collections (%d ms)%n",
+                games, (allocated() - gameBytes) / 1e6, collections() - gameCollections,
+                collectionMillis() - gameCollectionMillis);
+        transitions.forEach((screen, times) -> System.out.printf("  to %-6s %s, %.0f KB each%n",
+                screen, times.summary(), transitionBytes.get(screen) / 1e3 / times.count()));
+        transitions.clear(); // each game's line covers its own transitions
+        transitionBytes.clear();
+        gameBytes = -1;
+    }
+
+    private static long allocated() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    private static long collections() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    private static long collectionMillis() {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ms += Math.max(0, gc.getCollectionTime());
+        }
+        return ms;
+    }
+
+    // null where the JVM cannot count a thread's allocations; sizes then read as 0
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean t
+                && t.isThreadAllocatedMemorySupported()) {
+            t.setThreadAllocatedMemoryEnabled(true);
+            return t;
+        }
+        return null;
+    }
+}
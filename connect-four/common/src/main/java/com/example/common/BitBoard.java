@@ -0,0 +1,178 @@
+package com.example.common;
+
+/**
+ * Connect Four position packed into two longs.
+ *
+ * <p>Each column takes {@code HEIGHT + 1} bits, bottom cell first; the extra
+ * bit on top of every column stays empty so shifted lines never wrap into the
+ * next column. {@code mask} holds every stone and {@code current} the stones
+ * of the side to move, so playing, undoing and checking for four in a row are
+ * a handful of shifts and ands with no allocation.
+ *
+ * <p>Player 1 moves first: while {@link #moves()} is even it is player 1's turn.
+ */
+public final class BitBoard {
+    public static final int WIDTH = 7;
+    public static final int HEIGHT = 6;
+    public static final int CELLS = WIDTH * HEIGHT;
+
+    private static final int H1 = HEIGHT + 1;
+
+    private long current;
+    private long mask;
+    private int moves;
+
+    public BitBoard() {}
+
+    public BitBoard(BitBoard other) {
+        this.current = other.current;
+        this.mask = other.mask;
+        this.moves = other.moves;
+    }
+
+    public void reset() {
+        current = 0;
+        mask = 0;
+        moves = 0;
+    }
+
+    public int moves() {
+        return moves;
+    }
+
+    /** 1 or 2: whose turn it is. */
+    public int playerToMove() {
+        return (moves & 1) + 1;
+    }
+
+    public boolean isFull() {
+        return moves == CELLS;
+    }
+
+    /** Number of stones in the column, which is also the row index (from the bottom) the next one lands on. */
+    public int height(int col) {
+        return Long.bitCount(mask & columnMask(col));
+    }
+
+    public boolean canPlay(int col) {
+        return col >= 0 && col < WIDTH && (mask & topMask(col)) == 0;
+    }
+
+    /** Drops a stone for the side to move. The column must be playable. */
+    public void play(int col) {
+        current ^= mask;
+        mask |= mask + bottomMask(col);
+        moves++;
+    }
+
+    /** Takes back the last stone played in the column. */
+    public void undo(int col) {
+        long top = Long.highestOneBit(mask & columnMask(col));
+        mask ^= top;
+        current ^= mask;
+        moves--;
+    }
+
+    /** Would playing this column complete four for the side to move? */
+    public boolean isWinningMove(int col) {
+        long pos = current | ((mask + bottomMask(col)) & columnMask(col));
+        return alignment(pos);
+    }
+
+    /** Did the move just played complete four in a row? */
+    public boolean lastMoveWon() {
+        return alignment(current ^ mask);
+    }
+
+    /** Owner of a cell: 0 empty, 1 or 2. Row 0 is the bottom. */
+    public int owner(int row, int col) {
+        long bit = 1L << (col * H1 + row);
+        if ((mask & bit) == 0) return 0;
+        boolean mine = (current & bit) != 0;
+        return mine == (playerToMove() == 1) ? 1 : 2;
+    }
+
+    /**
+     * Unique key for the position: stones plus one bit above each column's
+     * top stone. Two boards share a key only if they hold the same stones.
+     */
+    public long key() {
+        return current + mask;
+    }
+
+    /** The key of the left-right mirror image of the position with this key. */
+    public static long mirrorKey(long key) {
+        long mirrored = 0;
+        for (int col = 0; col < WIDTH; col++) { // each column's bits, spare bit included, stay within the column
+            mirrored |= ((key >>> (col * H1)) & ((1L << H1) - 1)) << ((WIDTH - 1 - col) * H1);
+        }
+        return mirrored;
+    }
+
+    /** Stones of the side to move, or of the other side. */
+    public long stones(boolean sideToMove) {
+        return sideToMove ? current : current ^ mask;
+    }
+
+    /** Empty cells that would complete four for the side to move, or for the other side. */
+    public long threats(boolean sideToMove) {
+        return winningCells(stones(sideToMove)) & ~mask & BOARD;
+    }
+
+    public static long columnMask(int col) {
+        return ((1L << HEIGHT) - 1) << (col * H1);
+    }
+
+    public static long bottomMask(int col) {
+        return 1L << (col * H1);
+    }
+
+    public static long topMask(int col) {
+        return 1L << (HEIGHT - 1 + col * H1);
+    }
+
+    private static final long BOARD = boardMask();
+
+    private static long boardMask() {
+        long board = 0;
+        for (int col = 0; col < WIDTH; col++) {
+            board |= columnMask(col);
+        }
+        return board;
+    }
+
+    // every cell that lines up three of the given stones into a four
+    private static long winningCells(long pos) {
+        long r = (pos << 1) & (pos << 2) & (pos << 3); // vertical, only upwards
+        r |= lineCells(pos, H1);                        // horizontal
+        r |= lineCells(pos, H1 + 1);                    // diagonal /
+        r |= lineCells(pos, HEIGHT);                    // diagonal \
+        return r;
+    }
+
+    // cells completing a four along one direction: the gap may be at either end or in between
+    private static long lineCells(long pos, int shift) {
+        long p = (pos << shift) & (pos << 2 * shift);
+        long r = p & (pos << 3 * shift);
+        r |= p & (pos >>> shift);
+        p = (pos >>> shift) & (pos >>> 2 * shift);
+        r |= p & (pos << shift);
+        r |= p & (pos >>> 3 * shift);
+        return r;
+    }
+
+    private static boolean alignment(long pos) {
+        // horizontal
+        long m = pos & (pos >>> H1);
+        if ((m & (m >>> 2 * H1)) != 0) return true;
+        // diagonal /
+        m = pos & (pos >>> (H1 + 1));
+        if ((m & (m >>> 2 * (H1 + 1))) != 0) return true;
+        // diagonal \
+        m = pos & (pos >>> HEIGHT);
+        if ((m & (m >>> 2 * HEIGHT)) != 0) return true;
+        // vertical
+        m = pos & (pos >>> 1);
+        return (m & (m >>> 2)) != 0;
+    }
+}
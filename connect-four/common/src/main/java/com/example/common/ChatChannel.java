@@ -0,0 +1,9 @@
+package com.example.common;
+
+/**
+ * Joins or leaves a chat channel; only {@link ChatMessage#LOBBY} can be
+ * joined this way. On JOIN the server sends the channel's latest messages.
+ */
+public record ChatChannel(Op op, String name) {
+    public enum Op { JOIN, LEAVE }
+}
@@ -0,0 +1,32 @@
+package com.example.common;
+
+/**
+ * A line of chat. channel is {@link #LOBBY}, {@link #FRIENDS}, or null for
+ * the game the sender is playing or watching. The server fills in the
+ * sender itself and echoes the line back to them with everyone else.
+ */
+public class ChatMessage {
+    public static final String LOBBY = "lobby";
+    public static final String FRIENDS = "friends";
+
+    private final String sender;
+    private final String message;
+    private final int playerId;
+    private final String channel;
+
+    public ChatMessage(String sender, String message, int playerId) {
+        this(sender, message, playerId, null);
+    }
+
+    public ChatMessage(String sender, String message, int playerId, String channel) {
+        this.sender   = sender;
+        this.message  = message;
+        this.playerId = playerId;
+        this.channel  = channel;
+    }
+
+    public String getSender()  { return sender; }
+    public String getMessage() { return message; }
+    public int    getPlayerId() { return playerId; }
+    public String getChannel() { return channel; }
+}
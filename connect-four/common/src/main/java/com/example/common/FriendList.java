@@ -0,0 +1,6 @@
+package com.example.common;
+
+import java.util.List;
+
+/** The sender's friends who are online right now. */
+public record FriendList(List<String> online) {}
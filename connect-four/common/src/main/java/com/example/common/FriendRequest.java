@@ -0,0 +1,9 @@
+package com.example.common;
+
+/**
+ * Edits or queries the sender's friends list. username is the friend to add
+ * or remove, and null for LIST, which the server answers with a {@link FriendList}.
+ */
+public record FriendRequest(Op op, String username) {
+    public enum Op { ADD, REMOVE, LIST }
+}
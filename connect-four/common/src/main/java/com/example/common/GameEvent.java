@@ -1,51 +1,50 @@
 package com.example.common;
 
-import java.io.Serializable;
-
-public class GameEvent implements Serializable {
-    public enum Type { SELECT, MOVE, WIN }
+public class GameEvent {
+    public enum Type { START, MOVE, WIN, DRAW }
 
     private final Type type;
-    private final int column;
-    private final String movingPlayer;
-    private final String winningPlayer;
-    private final String planetPath;
-    private final String selectingPlayer;
+    private final int column;               // for MOVE
+    private final String movingPlayer;      // for MOVE, opponent for START
+    private final String winningPlayer;     // for WIN
+    private final String planetPath;        // for START
+    private final int playerId;             // for START
 
-    // SELECT
-    public GameEvent(Type type, String planetPath, String selectingPlayer) {
-        this.type             = type;
-        this.planetPath       = planetPath;
-        this.selectingPlayer  = selectingPlayer;
-        this.column           = -1;
-        this.movingPlayer     = null;
-        this.winningPlayer    = null;
+    // START
+    public GameEvent(Type type, String opponent, String opponentPath, int playerId) {
+        this.type          = type;
+        this.movingPlayer  = opponent;
+        this.planetPath    = opponentPath;
+        this.playerId      = playerId;
+        this.column        = -1;
+        this.winningPlayer = null;
     }
 
     // MOVE
     public GameEvent(Type type, int column, String movingPlayer) {
-        this.type             = type;
-        this.column           = column;
-        this.movingPlayer     = movingPlayer;
-        this.planetPath       = null;
-        this.selectingPlayer  = null;
-        this.winningPlayer    = null;
+        this.type          = type;
+        this.column        = column;
+        this.movingPlayer  = movingPlayer;
+        this.winningPlayer = null;
+        this.planetPath    = null;
+        this.playerId      = 0;
     }
 
-    // WIN
+    // WIN (and DRAW, with no winner)
     public GameEvent(Type type, String winningPlayer) {
-        this.type             = type;
-        this.winningPlayer    = winningPlayer;
-        this.column           = -1;
-        this.movingPlayer     = null;
-        this.planetPath       = null;
-        this.selectingPlayer  = null;
+        this.type          = type;
+        this.winningPlayer = winningPlayer;
+        this.column        = -1;
+        this.movingPlayer  = null;
+        this.planetPath    = null;
+        this.playerId      = 0;
     }
 
-    public Type   getType()             { return type; }
-    public int    getColumn()           { return column; }
-    public String getMovingPlayer()     { return movingPlayer; }
-    public String getWinningPlayer()    { return winningPlayer; }
-    public String getPlanetPath()       { return planetPath; }
-    public String getSelectingPlayer()  { return selectingPlayer; }
+    public Type   getType()          { return type; }
+    public int    getColumn()        { return column; }
+    public int    getPlayerId()      { return playerId; }
+    public String getMovingPlayer()  { return movingPlayer; }
+    public String getWinningPlayer() { return winningPlayer; }
+    public String getOpponent()      { return movingPlayer; }
+    public String getPlanetPath()    { return planetPath; }
 }
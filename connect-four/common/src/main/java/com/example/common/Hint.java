@@ -0,0 +1,7 @@
+package com.example.common;
+
+/**
+ * Asks for (column -1) or answers with (column, -1 for none) the opening
+ * book's move in the sender's current casual game.
+ */
+public record Hint(int column) {}
@@ -0,0 +1,11 @@
+package com.example.common;
+
+/**
+ * Invitation to a casual game between friends. The inviter sends SEND naming
+ * the friend and the server delivers it naming the inviter; the friend answers
+ * ACCEPT or DECLINE naming the inviter, and an accepted invite starts the game
+ * straight away. planetPath is the sender's pick, as in {@link PlayRequest}.
+ */
+public record Invite(Op op, String player, String planetPath) {
+    public enum Op { SEND, ACCEPT, DECLINE }
+}
@@ -0,0 +1,105 @@
+package com.example.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size log-linear histogram for latencies in nanoseconds. Each power of
+ * two is split into 16 buckets, so any recorded value is off by at most ~6%,
+ * and recording is two atomic adds with nothing allocated.
+ *
+ * <p>A striped histogram keeps one set of buckets per stripe and each thread
+ * records into the stripe its id picks, so threads recording at the same
+ * time mostly touch different cache lines. Reads add the stripes up.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+    // a stripe's buckets, its sum, and padding so the next stripe starts on another cache line
+    private static final int STRIDE = BUCKETS + 16;
+
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram() {
+        this(1);
+    }
+
+    /** stripes is rounded up to a power of two; about the number of cores suits a hot path. */
+    public LatencyHistogram(int stripes) {
+        int n = 1;
+        while (n < stripes) n <<= 1;
+        this.stripeMask = n - 1;
+        this.counts = new AtomicLongArray(n * STRIDE);
+    }
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        int base = (int) (Thread.currentThread().threadId() & stripeMask) * STRIDE;
+        counts.incrementAndGet(base + index(value));
+        counts.addAndGet(base + BUCKETS, value);
+    }
+
+    public long count() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += bucket(i);
+        }
+        return n;
+    }
+
+    /** Total of everything recorded, in nanoseconds. */
+    public long sum() {
+        long sum = 0;
+        for (int base = 0; base < counts.length(); base += STRIDE) {
+            sum += counts.get(base + BUCKETS);
+        }
+        return sum;
+    }
+
+    private long bucket(int i) {
+        long n = 0;
+        for (int base = 0; base < counts.length(); base += STRIDE) {
+            n += counts.get(base + i);
+        }
+        return n;
+    }
+
+    /** Value at the given percentile (0-100), or 0 if nothing was recorded. */
+    public long percentile(double p) {
+        long total = count();
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += bucket(i);
+            if (seen >= target) {
+                return i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /** "p50=1.2ms p95=4.0ms p99=9.8ms n=1234" for log lines. */
+    public String summary() {
+        return String.format("p50=%s p95=%s p99=%s n=%d",
+                millis(percentile(50)), millis(percentile(95)), millis(percentile(99)), count());
+    }
+
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int mag = 63 - Long.numberOfLeadingZeros(v);
+        int top = (int) (v >>> (mag - SUB_BITS));
+        return (mag - SUB_BITS + 1) * SUB + (top - SUB);
+    }
+
+    static long lowerBound(int i) {
+        if (i < SUB) return i;
+        int group = i / SUB;
+        return (long) (SUB + i % SUB) << (group - 1);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1fms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,4 @@
+package com.example.common;
+
+/** First message on every connection: log in, or sign up and log in. */
+public record LoginRequest(boolean signUp, String username, String password) {}
@@ -0,0 +1,10 @@
+package com.example.common;
+
+/** Server's answer to a {@link LoginRequest}; anything but SUCCESS is an error to show. */
+public record LoginResult(String status) {
+    public static final String SUCCESS = "SUCCESS";
+
+    public boolean ok() {
+        return SUCCESS.equals(status);
+    }
+}
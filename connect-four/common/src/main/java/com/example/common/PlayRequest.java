@@ -0,0 +1,7 @@
+package com.example.common;
+
+/**
+ * Puts the sender in the matchmaking queue with the planet they picked;
+ * ranked games are matched by rating and update it afterwards.
+ */
+public record PlayRequest(String planetPath, boolean ranked) {}
@@ -0,0 +1,200 @@
+package com.example.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary wire format shared by client and server.
+ *
+ * <pre>
+ * frame  = u16 length, body            (length counts the body only)
+ * body   = u8 version, u8 type, u8 arg, string*
+ * string = u16 byte count (0xFFFF for null), UTF-8 bytes
+ * </pre>
+ *
+ * The arg byte carries the column, player id, sign-up/ranked flag, the
+ * friend/invite/watch/channel operation or the hinted column. A MOVE is 9
+ * bytes plus the player name, where Java serialization of the same GameEvent
+ * was a few hundred. Frames are self-contained, so a reader can
+ * skip straight to the next one and nothing accumulates per connection.
+ */
+public final class Protocol {
+    public static final int VERSION = 1;
+    public static final int HEADER = 2;
+    public static final int MAX_BODY = 0xFFFF;
+
+    static final byte LOGIN = 1;
+    static final byte LOGIN_RESULT = 2;
+    static final byte PLAY = 3;
+    static final byte START = 4;
+    static final byte MOVE = 5;
+    static final byte WIN = 6;
+    static final byte CHAT = 7;
+    static final byte DRAW = 8;
+    static final byte FRIEND = 9;
+    static final byte FRIEND_LIST = 10;
+    static final byte INVITE = 11;
+    static final byte HINT = 12;
+    static final byte SNAPSHOT = 13;
+    static final byte WATCH = 14;
+    static final byte SPECTATE = 15;
+    static final byte CHANNEL = 16;
+    static final byte REDIRECT = 17;
+
+    private static final int NULL_STRING = 0xFFFF;
+
+    private Protocol() {}
+
+    /** Encodes one message into a complete frame, length prefix included. */
+    public static byte[] encode(Object msg) {
+        if (msg instanceof GameEvent ge) {
+            return switch (ge.getType()) {
+                case START -> frame(START, ge.getPlayerId(), ge.getOpponent(), ge.getPlanetPath());
+                case MOVE -> frame(MOVE, ge.getColumn(), ge.getMovingPlayer());
+                case WIN -> frame(WIN, 0, ge.getWinningPlayer());
+                case DRAW -> frame(DRAW, 0);
+            };
+        } else if (msg instanceof ChatMessage cm) {
+            return frame(CHAT, cm.getPlayerId(), cm.getSender(), cm.getMessage(), cm.getChannel());
+        } else if (msg instanceof LoginRequest lr) {
+            return frame(LOGIN, lr.signUp() ? 1 : 0, lr.username(), lr.password());
+        } else if (msg instanceof LoginResult lr) {
+            return frame(LOGIN_RESULT, 0, lr.status());
+        } else if (msg instanceof PlayRequest pr) {
+            return frame(PLAY, pr.ranked() ? 1 : 0, pr.planetPath());
+        } else if (msg instanceof FriendRequest fr) {
+            return frame(FRIEND, fr.op().ordinal(), fr.username());
+        } else if (msg instanceof FriendList fl) {
+            return frame(FRIEND_LIST, 0, fl.online().toArray(new String[0])); // as many strings as fill the body
+        } else if (msg instanceof Invite inv) {
+            return frame(INVITE, inv.op().ordinal(), inv.player(), inv.planetPath());
+        } else if (msg instanceof Hint h) {
+            return frame(HINT, h.column() + 1); // 0 is "no column"
+        } else if (msg instanceof Snapshot s) {
+            return frame(SNAPSHOT, s.playerId(), s.opponent(), s.opponentPlanet(), s.planetPath(), s.moves());
+        } else if (msg instanceof Watch w) {
+            return frame(WATCH, w.op().ordinal(), w.player());
+        } else if (msg instanceof Spectate s) {
+            return frame(SPECTATE, 0, s.player1(), s.player2(), s.planet1(), s.planet2(), s.moves());
+        } else if (msg instanceof ChatChannel c) {
+            return frame(CHANNEL, c.op().ordinal(), c.name());
+        } else if (msg instanceof Redirect r) {
+            return frame(REDIRECT, 0, r.host(), Integer.toString(r.port()), r.token()); // ports do not fit the arg byte
+        }
+        throw new IllegalArgumentException("No wire encoding for " + msg);
+    }
+
+    // every body is: version, type, one small int, then the message's strings
+    private static byte[] frame(byte type, int n, String... strings) {
+        byte[][] bytes = new byte[strings.length][];
+        int size = 3;
+        for (int i = 0; i < strings.length; i++) {
+            bytes[i] = strings[i] == null ? null : strings[i].getBytes(StandardCharsets.UTF_8);
+            size += 2 + (bytes[i] == null ? 0 : bytes[i].length);
+        }
+        if (size > MAX_BODY) {
+            throw new IllegalArgumentException("Message too large: " + size + " bytes");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + size);
+        buf.putShort((short) size);
+        buf.put((byte) VERSION);
+        buf.put(type);
+        buf.put((byte) n);
+        for (byte[] b : bytes) {
+            if (b == null) {
+                buf.putShort((short) NULL_STRING);
+            } else {
+                buf.putShort((short) b.length);
+                buf.put(b);
+            }
+        }
+        return buf.array();
+    }
+
+    /** Decodes one frame body (version byte onwards). */
+    public static Object decode(byte[] buf, int off, int len) throws ProtocolException {
+        ByteBuffer in = ByteBuffer.wrap(buf, off, len);
+        try {
+            int version = in.get() & 0xFF;
+            if (version != VERSION) {
+                throw new ProtocolException("Unsupported protocol version " + version);
+            }
+            byte type = in.get();
+            int n = in.get();
+            return switch (type) {
+                case START -> new GameEvent(GameEvent.Type.START, getString(in), getString(in), n);
+                case MOVE -> new GameEvent(GameEvent.Type.MOVE, n, getString(in));
+                case WIN -> new GameEvent(GameEvent.Type.WIN, getString(in));
+                case CHAT -> new ChatMessage(getString(in), getString(in), n, getString(in));
+                case DRAW -> new GameEvent(GameEvent.Type.DRAW, null);
+                case LOGIN -> new LoginRequest(n != 0, getString(in), getString(in));
+                case LOGIN_RESULT -> new LoginResult(getString(in));
+                case PLAY -> new PlayRequest(getString(in), n != 0);
+                case FRIEND -> new FriendRequest(op(FriendRequest.Op.values(), n), getString(in));
+                case FRIEND_LIST -> new FriendList(getStrings(in));
+                case INVITE -> new Invite(op(Invite.Op.values(), n), getString(in), getString(in));
+                case HINT -> new Hint(n - 1);
+                case SNAPSHOT -> new Snapshot(getString(in), getString(in), getString(in), n, getString(in));
+                case WATCH -> new Watch(op(Watch.Op.values(), n), getString(in));
+                case SPECTATE -> new Spectate(getString(in), getString(in), getString(in), getString(in), getString(in));
+                case CHANNEL -> new ChatChannel(op(ChatChannel.Op.values(), n), getString(in));
+                case REDIRECT -> redirect(getString(in), getString(in), getString(in));
+                default -> throw new ProtocolException("Unknown message type " + type);
+            };
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Truncated frame");
+        }
+    }
+
+    public static Object read(DataInputStream in) throws IOException {
+        int len = in.readUnsignedShort();
+        byte[] body = new byte[len];
+        in.readFully(body);
+        return decode(body, 0, len);
+    }
+
+    public static void write(DataOutputStream out, Object msg) throws IOException {
+        out.write(encode(msg));
+    }
+
+    private static List<String> getStrings(ByteBuffer in) throws ProtocolException {
+        List<String> strings = new ArrayList<>();
+        while (in.hasRemaining()) {
+            strings.add(getString(in));
+        }
+        return strings;
+    }
+
+    private static Redirect redirect(String host, String port, String token) throws ProtocolException {
+        try {
+            return new Redirect(host, Integer.parseInt(port), token);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Bad port " + port);
+        }
+    }
+
+    private static <E extends Enum<E>> E op(E[] values, int n) throws ProtocolException {
+        if (n < 0 || n >= values.length) {
+            throw new ProtocolException("Unknown operation " + n);
+        }
+        return values[n];
+    }
+
+    private static String getString(ByteBuffer in) throws ProtocolException {
+        int len = in.getShort() & 0xFFFF;
+        if (len == NULL_STRING) return null;
+        if (len > in.remaining()) {
+            throw new ProtocolException("Truncated string");
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return s;
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.common;
+
+/**
+ * Sent by the router when a game has been placed on a shard: the player
+ * connects to host:port and logs in there with the token as the password.
+ * The router connection stays open for the lobby, friends and the next game.
+ */
+public record Redirect(String host, int port, String token) {}
@@ -0,0 +1,8 @@
+package com.example.common;
+
+/**
+ * Everything a player needs to pick a running game back up after logging in
+ * again: who they play, both planets, their player id and the moves so far,
+ * one digit (column 0-6) per move in the order they were played.
+ */
+public record Snapshot(String opponent, String opponentPlanet, String planetPath, int playerId, String moves) {}
@@ -0,0 +1,9 @@
+package com.example.common;
+
+/**
+ * A watched game as it stands: both players, their planets and the moves so
+ * far, one digit (column 0-6) per move. Sent when watching starts and again
+ * in place of the moves a spectator fell too far behind on; live MOVE, WIN
+ * and DRAW events follow.
+ */
+public record Spectate(String player1, String player2, String planet1, String planet2, String moves) {}
@@ -0,0 +1,10 @@
+package com.example.common;
+
+/**
+ * Starts or stops watching the game the named player is in. The server
+ * answers START with a {@link Spectate}, or with STOP if the player is not
+ * in a game (or the game cannot be watched).
+ */
+public record Watch(Op op, String player) {
+    public enum Op { START, STOP }
+}
@@ -0,0 +1,135 @@
+package com.example.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BitBoardTest {
+
+    // plays a game given as its columns, "0123" for 0, 1, 2, 3, all but the last
+    private static BitBoard upToLast(String moves) {
+        BitBoard board = new BitBoard();
+        for (int i = 0; i < moves.length() - 1; i++) {
+            board.play(moves.charAt(i) - '0');
+        }
+        assertFalse(board.lastMoveWon(), "won before the last move of " + moves);
+        return board;
+    }
+
+    private static void assertLastMoveWins(String moves, int winner) {
+        BitBoard board = upToLast(moves);
+        int last = moves.charAt(moves.length() - 1) - '0';
+        assertEquals(winner, board.playerToMove());
+        assertTrue(board.isWinningMove(last), moves);
+        board.play(last);
+        assertTrue(board.lastMoveWon(), moves);
+    }
+
+    @Test
+    void vertical() {
+        assertLastMoveWins("0101010", 1);
+        assertLastMoveWins("01010161", 2);
+    }
+
+    @Test
+    void horizontal() {
+        assertLastMoveWins("0011223", 1);
+    }
+
+    @Test
+    void diagonals() {
+        assertLastMoveWins("01122323353", 1); // rising left to right
+        assertLastMoveWins("65544343313", 1); // falling left to right
+    }
+
+    // the spare bit on top of each column keeps a line from running into the next one
+    @Test
+    void linesDoNotWrapBetweenColumns() {
+        BitBoard board = upToLast("10605004040"); // player 1 to fill the top of column 0 over player 2's three
+        assertFalse(board.isWinningMove(0), "the top of column 0 is not below the bottom of column 1");
+        board.play(0);
+        assertFalse(board.lastMoveWon());
+
+        board = upToLast("4455663"); // player 1 along the bottom from column 4 to 6
+        assertTrue(board.isWinningMove(3));
+        assertFalse(board.isWinningMove(0), "column 0 is not next to column 6");
+    }
+
+    @Test
+    void fullBoardWithoutAWinner() {
+        // columns filled in pairs, so colours alternate row by row and never line up four
+        String moves = "010101" + "101010" + "232323" + "323232" + "454545" + "545454" + "666666";
+        BitBoard board = new BitBoard();
+        for (char c : moves.toCharArray()) {
+            assertFalse(board.isWinningMove(c - '0'));
+            board.play(c - '0');
+            assertFalse(board.lastMoveWon());
+        }
+        assertTrue(board.isFull());
+        for (int col = 0; col < BitBoard.WIDTH; col++) {
+            assertFalse(board.canPlay(col));
+        }
+    }
+
+    @Test
+    void undoRestoresThePosition() {
+        BitBoard board = upToLast("0011223");
+        long key = board.key();
+        board.play(3);
+        assertTrue(board.lastMoveWon());
+        board.undo(3);
+        assertEquals(key, board.key());
+        assertFalse(board.lastMoveWon());
+        assertTrue(board.isWinningMove(3));
+    }
+
+    // random games checked cell by cell against a plain scan of the grid
+    @Test
+    void agreesWithAGridScan() {
+        Random random = new Random(42);
+        for (int game = 0; game < 2000; game++) {
+            BitBoard board = new BitBoard();
+            int[][] grid = new int[BitBoard.HEIGHT][BitBoard.WIDTH];
+            while (!board.isFull()) {
+                int player = board.playerToMove();
+                for (int col = 0; col < BitBoard.WIDTH; col++) {
+                    if (!board.canPlay(col)) continue;
+                    int row = board.height(col);
+                    grid[row][col] = player;
+                    assertEquals(fourInARow(grid, player), board.isWinningMove(col), "column " + col);
+                    grid[row][col] = 0;
+                }
+                int col;
+                do {
+                    col = random.nextInt(BitBoard.WIDTH);
+                } while (!board.canPlay(col));
+                grid[board.height(col)][col] = player;
+                board.play(col);
+                assertEquals(player, board.owner(board.height(col) - 1, col));
+                assertEquals(fourInARow(grid, player), board.lastMoveWon());
+                if (board.lastMoveWon()) break;
+            }
+        }
+    }
+
+    private static boolean fourInARow(int[][] grid, int player) {
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        for (int row = 0; row < BitBoard.HEIGHT; row++) {
+            for (int col = 0; col < BitBoard.WIDTH; col++) {
+                for (int[] d : directions) {
+                    int k = 0;
+                    while (k < 4) {
+                        int r = row + k * d[0];
+                        int c = col + k * d[1];
+                        if (r < 0 || r >= BitBoard.HEIGHT || c < 0 || c >= BitBoard.WIDTH || grid[r][c] != player) break;
+                        k++;
+                    }
+                    if (k == 4) return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProtocolTest {
+
+    // encodes, checks the length prefix, and decodes the body
+    private static Object roundTrip(Object msg) throws ProtocolException {
+        byte[] frame = Protocol.encode(msg);
+        int length = (frame[0] & 0xFF) << 8 | frame[1] & 0xFF;
+        assertEquals(frame.length - Protocol.HEADER, length, "length prefix");
+        return Protocol.decode(frame, Protocol.HEADER, length);
+    }
+
+    @Test
+    void recordsRoundTrip() throws ProtocolException {
+        List<Object> messages = List.of(
+                new LoginRequest(true, "alice", "secret"),
+                new LoginRequest(false, "bob", ""),
+                new LoginResult(LoginResult.SUCCESS),
+                new PlayRequest("/planets/earth.png", true),
+                new PlayRequest(null, false),
+                new FriendRequest(FriendRequest.Op.ADD, "carol"),
+                new FriendRequest(FriendRequest.Op.LIST, null),
+                new FriendList(List.of()),
+                new FriendList(List.of("alice", "bob")),
+                new Invite(Invite.Op.values()[0], "dave", "/planets/mars.png"),
+                new Hint(3),
+                new Snapshot("erin", "/planets/venus.png", "/planets/earth.png", 2, "3344"),
+                new Watch(Watch.Op.values()[0], "frank"),
+                new Spectate("alice", "bob", "/planets/earth.png", "/planets/mars.png", "0123"),
+                new ChatChannel(ChatChannel.Op.values()[0], "room"),
+                new Redirect("localhost", 6001, "token"));
+        for (Object msg : messages) {
+            assertEquals(msg, roundTrip(msg));
+        }
+    }
+
+    @Test
+    void gameEventsRoundTrip() throws ProtocolException {
+        GameEvent start = (GameEvent) roundTrip(new GameEvent(GameEvent.Type.START, "bob", "/planets/mars.png", 2));
+        assertEquals(GameEvent.Type.START, start.getType());
+        assertEquals("bob", start.getOpponent());
+        assertEquals("/planets/mars.png", start.getPlanetPath());
+        assertEquals(2, start.getPlayerId());
+
+        GameEvent move = (GameEvent) roundTrip(new GameEvent(GameEvent.Type.MOVE, 6, "alice"));
+        assertEquals(GameEvent.Type.MOVE, move.getType());
+        assertEquals(6, move.getColumn());
+        assertEquals("alice", move.getMovingPlayer());
+
+        GameEvent win = (GameEvent) roundTrip(new GameEvent(GameEvent.Type.WIN, "alice"));
+        assertEquals(GameEvent.Type.WIN, win.getType());
+        assertEquals("alice", win.getWinningPlayer());
+
+        GameEvent draw = (GameEvent) roundTrip(new GameEvent(GameEvent.Type.DRAW, null));
+        assertEquals(GameEvent.Type.DRAW, draw.getType());
+        assertNull(draw.getWinningPlayer());
+    }
+
+    @Test
+    void chatRoundTrip() throws ProtocolException {
+        for (String channel : new String[]{null, ChatMessage.LOBBY, ChatMessage.FRIENDS}) {
+            ChatMessage chat = (ChatMessage) roundTrip(new ChatMessage("alice", "gg, ça va? 😀", 1, channel));
+            assertEquals("alice", chat.getSender());
+            assertEquals("gg, ça va? 😀", chat.getMessage());
+            assertEquals(1, chat.getPlayerId());
+            assertEquals(channel, chat.getChannel());
+        }
+    }
+
+    // the server rejects them, so they must arrive as sent rather than wrap to a playable column
+    @Test
+    void negativeColumnsRoundTrip() throws ProtocolException {
+        for (int column : new int[]{-1, -7, -128}) {
+            GameEvent move = (GameEvent) roundTrip(new GameEvent(GameEvent.Type.MOVE, column, "alice"));
+            assertEquals(column, move.getColumn());
+        }
+        assertEquals(new Hint(-1), roundTrip(new Hint(-1))); // no column
+    }
+
+    @Test
+    void friendListFillsTheBody() throws ProtocolException {
+        // 3 bytes of version, type and arg, then 2 + length per name
+        List<String> names = new ArrayList<>();
+        int size = 3;
+        while (size + 100 <= Protocol.MAX_BODY) {
+            names.add(String.format("%098d", names.size()));
+            size += 100;
+        }
+        names.add("x".repeat(Protocol.MAX_BODY - size - 2));
+
+        FriendList full = new FriendList(names);
+        assertEquals(Protocol.HEADER + Protocol.MAX_BODY, Protocol.encode(full).length);
+        assertEquals(full, roundTrip(full));
+
+        names.set(names.size() - 1, names.get(names.size() - 1) + "x");
+        assertThrows(IllegalArgumentException.class, () -> Protocol.encode(new FriendList(names)));
+    }
+
+    @Test
+    void oversizedChatIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> Protocol.encode(new ChatMessage("alice", "x".repeat(Protocol.MAX_BODY), 1)));
+    }
+
+    @Test
+    void unencodableMessageIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> Protocol.encode("hello"));
+    }
+
+    @Test
+    void badFramesAreRejected() {
+        byte[] frame = Protocol.encode(new LoginRequest(true, "alice", "secret"));
+        int length = frame.length - Protocol.HEADER;
+
+        byte[] version = frame.clone();
+        version[Protocol.HEADER] = (byte) (Protocol.VERSION + 1);
+        assertThrows(ProtocolException.class, () -> Protocol.decode(version, Protocol.HEADER, length));
+
+        byte[] type = frame.clone();
+        type[Protocol.HEADER + 1] = 99;
+        assertThrows(ProtocolException.class, () -> Protocol.decode(type, Protocol.HEADER, length));
+
+        assertThrows(ProtocolException.class, () -> Protocol.decode(frame, Protocol.HEADER, length - 1));
+        assertThrows(ProtocolException.class, () -> Protocol.decode(frame, Protocol.HEADER, 2));
+
+        byte[] op = Protocol.encode(new FriendRequest(FriendRequest.Op.ADD, "bob"));
+        op[Protocol.HEADER + 2] = (byte) FriendRequest.Op.values().length;
+        assertThrows(ProtocolException.class, () -> Protocol.decode(op, Protocol.HEADER, op.length - Protocol.HEADER));
+
+        byte[] port = Protocol.encode(new Redirect("localhost", 6001, "token"));
+        int digit = indexOf(port, (byte) '6');
+        port[digit] = 'x';
+        assertThrows(ProtocolException.class, () -> Protocol.decode(port, Protocol.HEADER, port.length - Protocol.HEADER));
+    }
+
+    @Test
+    void framesFollowOneAnotherOnAStream() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Protocol.write(out, new LoginRequest(false, "alice", "secret"));
+        Protocol.write(out, new PlayRequest("/planets/earth.png", false));
+        Protocol.write(out, new GameEvent(GameEvent.Type.MOVE, 3, "alice"));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(new LoginRequest(false, "alice", "secret"), Protocol.read(in));
+        assertEquals(new PlayRequest("/planets/earth.png", false), Protocol.read(in));
+        assertEquals(3, ((GameEvent) Protocol.read(in)).getColumn());
+        assertEquals(0, in.available());
+    }
+
+    private static int indexOf(byte[] bytes, byte b) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == b) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes a connection has queued for its peer but not yet handed to the
+ * socket, with high- and low-water marks. Going over the high mark makes the
+ * connection congested: {@link PlayerConnection#writable()} turns false so
+ * optional traffic (spectator feeds) holds off, while game traffic is still
+ * queued. It stays congested until the backlog drains to the low mark. A
+ * peer that stays congested for {@link #STALL_NANOS}, or lets the backlog
+ * reach {@link #LIMIT}, is not reading and gets disconnected.
+ */
+final class Backlog {
+    static final int HIGH_WATER = Integer.getInteger("connect4.outHighWater", 64 * 1024);
+    static final int LOW_WATER = Integer.getInteger("connect4.outLowWater", 16 * 1024);
+    static final int LIMIT = Integer.getInteger("connect4.outLimit", 1024 * 1024);
+    static final long STALL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("connect4.outStallMillis", 10_000));
+
+    private long bytes;
+    private boolean congested;
+    private long congestedSince;
+
+    /** Counts a queued frame. False if the peer is too far behind and should be dropped. */
+    synchronized boolean queued(int length) {
+        bytes += length;
+        if (congested) {
+            return bytes <= LIMIT && System.nanoTime() - congestedSince <= STALL_NANOS;
+        }
+        if (bytes > HIGH_WATER) {
+            congested = true;
+            congestedSince = System.nanoTime();
+        }
+        return true;
+    }
+
+    /** Counts bytes the socket has taken. */
+    synchronized void sent(long length) {
+        bytes -= length;
+        if (congested && bytes <= LOW_WATER) {
+            congested = false;
+        }
+    }
+
+    synchronized boolean congested() {
+        return congested;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,88 @@
+import com.example.common.BitBoard;
+import com.example.common.GameEvent;
+import com.example.common.Protocol;
+
+import java.net.ProtocolException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The built-in bot's side of a game. To the session the bot is an ordinary
+ * ClientHandler; frames "sent" to it land here, are decoded, and every
+ * opponent move is answered by a search on the shared {@link BotScheduler}.
+ * Search memory belongs to the scheduler, so a bot that is waiting for its
+ * opponent costs a board and nothing else. Positions the {@link OpeningBook}
+ * holds are answered from the book at once, without a search.
+ */
+public class BotConnection implements PlayerConnection {
+    public static final String NAME = "[bot]";
+    static final long MOVE_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("connect4.botMillis", 100));
+
+    private final BitBoard board = new BitBoard();
+    private final OpeningBook book;
+    private Server.ClientHandler handler;
+    private int me;
+    private volatile boolean over;
+
+    /** book may be null, then every move is searched. */
+    BotConnection(OpeningBook book) {
+        this.book = book;
+    }
+
+    /** Binds the connection to the handler that plays through it; call before the game starts. */
+    void attach(Server.ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void write(byte[] frame) throws ProtocolException {
+        Object msg = Protocol.decode(frame, Protocol.HEADER, frame.length - Protocol.HEADER);
+        if (!(msg instanceof GameEvent ge)) return; // chat, invites: nothing to do
+        switch (ge.getType()) {
+            case WIN, DRAW -> over = true;
+            case START -> {
+                synchronized (this) {
+                    board.reset();
+                    me = ge.getPlayerId();
+                    over = false;
+                }
+                think();
+            }
+            case MOVE -> {
+                synchronized (this) {
+                    board.play(ge.getColumn());
+                }
+                think();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        over = true;
+    }
+
+    private void think() {
+        int bookMove;
+        synchronized (this) {
+            if (over || board.playerToMove() != me) return;
+            bookMove = book != null ? book.bestMove(board) : -1;
+            if (bookMove < 0) {
+                BotScheduler.shared().think(board, MOVE_BUDGET_NANOS, this::play);
+                return;
+            }
+        }
+        play(bookMove);
+    }
+
+    private void play(int col) {
+        synchronized (this) {
+            if (over) return;
+            board.play(col);
+        }
+        try {
+            handler.onMessage(new GameEvent(GameEvent.Type.MOVE, col, NAME));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import com.example.common.BitBoard;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Move search for the built-in bot: negamax with alpha-beta pruning,
+ * iterative deepening under a time budget, and a {@link TranspositionTable}
+ * keyed by {@link BitBoard#key()}.
+ *
+ * <p>Moves are tried best-first: the table's move for the position, then
+ * from the center column outwards. Leaves that are not decided are scored by
+ * the difference in open threats (empty cells that would complete four) and
+ * center stones. Searching works on one board with play/undo and keeps its
+ * state in fields, so nothing is allocated per node. An engine is not
+ * thread-safe, but any number of engines may share one table; that is how
+ * {@link BotScheduler} runs a search on several threads.
+ */
+public class BotEngine {
+    static final int WIN = 1000;
+    private static final int INF = 10_000;
+    private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+    private static final long CENTER = BitBoard.columnMask(3);
+
+    private final TranspositionTable table;
+
+    private BitBoard board;
+    private int rootMoves;
+    private int rootBest;
+    private long deadline;
+    private AtomicBoolean cancel;
+    private boolean stopped;
+    private long nodes;
+    private int score;
+
+    /** An engine with a private 4 MB table. */
+    public BotEngine() {
+        this(new TranspositionTable(18));
+    }
+
+    public BotEngine(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Picks a move for the side to move. The board is left as it was. Returns
+     * the best move of the deepest search that finished inside the budget.
+     */
+    public int bestMove(BitBoard position, long budgetNanos) {
+        return search(position, System.nanoTime() + budgetNanos, BitBoard.CELLS, 1, null);
+    }
+
+    /**
+     * Iterative deepening from firstDepth to maxDepth. Stops at the deadline,
+     * as soon as cancel is set (if given), or once the result is proven.
+     */
+    int search(BitBoard position, long deadline, int maxDepth, int firstDepth, AtomicBoolean cancel) {
+        this.board = position;
+        this.rootMoves = position.moves();
+        this.deadline = deadline;
+        this.cancel = cancel;
+        this.stopped = false;
+        this.nodes = 0;
+        this.score = 0;
+
+        int best = firstPlayable();
+        for (int col = 0; col < BitBoard.WIDTH; col++) {
+            if (board.canPlay(col) && board.isWinningMove(col)) {
+                best = col;
+                score = WIN - (rootMoves + 1);
+                maxDepth = 0; // nothing to search
+            }
+        }
+        maxDepth = Math.min(maxDepth, BitBoard.CELLS - rootMoves);
+        for (int depth = Math.min(firstDepth, maxDepth); depth >= 1 && depth <= maxDepth; depth++) {
+            rootBest = -1;
+            int result = negamax(depth, -INF, INF);
+            if (stopped) break;
+            if (rootBest >= 0) {
+                best = rootBest;
+            }
+            score = result;
+            if (Math.abs(score) > WIN - BitBoard.CELLS - 1) break; // proven win or loss, deeper cannot change it
+        }
+        this.board = null;
+        this.cancel = null;
+        return best;
+    }
+
+    /**
+     * Score of the last search's deepest finished iteration, from the side to
+     * move's point of view. Beyond ±(WIN - 43) it is a proven win or loss.
+     */
+    public int score() {
+        return score;
+    }
+
+    /** Positions visited by the last search. */
+    public long nodes() {
+        return nodes;
+    }
+
+    private int negamax(int depth, int alpha, int beta) {
+        if ((++nodes & 1023) == 0 && (System.nanoTime() > deadline || cancel != null && cancel.get())) {
+            stopped = true;
+        }
+        if (stopped) return 0;
+        int moves = board.moves();
+        if (moves == BitBoard.CELLS) return 0;
+        if (moves > rootMoves) { // the root checked for wins before searching
+            for (int col = 0; col < BitBoard.WIDTH; col++) {
+                if (board.canPlay(col) && board.isWinningMove(col)) {
+                    return WIN - (moves + 1);
+                }
+            }
+        }
+        if (depth == 0) return evaluate();
+
+        long key = board.key();
+        int ttMove = -1;
+        long entry = table.probe(key);
+        if (entry != TranspositionTable.MISS) {
+            ttMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int score = TranspositionTable.score(entry);
+                int flag = TranspositionTable.flag(entry);
+                if (flag == TranspositionTable.LOWER) alpha = Math.max(alpha, score);
+                else if (flag == TranspositionTable.UPPER) beta = Math.min(beta, score);
+                if (flag == TranspositionTable.EXACT || alpha >= beta) {
+                    if (moves == rootMoves) rootBest = ttMove;
+                    return score;
+                }
+            }
+        }
+
+        int originalAlpha = alpha;
+        int best = -INF;
+        int bestMove = -1;
+        for (int i = -1; i < ORDER.length; i++) {
+            int col = i < 0 ? ttMove : ORDER[i];
+            if (col < 0 || (i >= 0 && col == ttMove) || !board.canPlay(col)) continue;
+            board.play(col);
+            int score = -negamax(depth - 1, -beta, -alpha);
+            board.undo(col);
+            if (stopped) return 0;
+            if (score > best) {
+                best = score;
+                bestMove = col;
+            }
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) break;
+        }
+
+        int flag = best <= originalAlpha ? TranspositionTable.UPPER
+                : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+        table.store(key, best, depth, flag, bestMove);
+        if (moves == rootMoves) rootBest = bestMove;
+        return best;
+    }
+
+    // side to move's point of view: open threats count most, center stones break ties
+    private int evaluate() {
+        int threats = Long.bitCount(board.threats(true)) - Long.bitCount(board.threats(false));
+        int center = Long.bitCount(board.stones(true) & CENTER) - Long.bitCount(board.stones(false) & CENTER);
+        return 4 * threats + center;
+    }
+
+    private int firstPlayable() {
+        for (int col : ORDER) {
+            if (board.canPlay(col)) return col;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,115 @@
+import com.example.common.BitBoard;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs bot searches on a ForkJoinPool with Lazy SMP: the thread that owns a
+ * search does the usual iterative deepening while helper threads search the
+ * same position from other starting depths, and all of them share one
+ * lock-free {@link TranspositionTable}. Helpers never report a move; they
+ * only fill the table with results the main search then finds for free.
+ *
+ * <p>Fairness: a search takes helpers only for the share of the pool that no
+ * other bot game is using, so a lone game gets every thread and a busy
+ * server gives each game one. Every search also stops at its time budget,
+ * and the pool runs queued searches first come, first served, so a deep
+ * search cannot hold threads that other games are waiting for.
+ */
+public class BotScheduler implements AutoCloseable {
+    private static final int THREADS = Integer.getInteger("connect4.botThreads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    private static final int TABLE_BITS = 20; // 16 MB, shared by every game
+
+    private static final BotScheduler shared = new BotScheduler(THREADS, TABLE_BITS);
+
+    private final ForkJoinPool pool;
+    private final TranspositionTable table;
+    private final ThreadLocal<BotEngine> engines;
+    private final AtomicInteger searches = new AtomicInteger();
+    private final LongAdder nodes = new LongAdder();
+
+    public BotScheduler(int threads, int tableBits) {
+        this.pool = new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("bot-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, true); // async mode: queued tasks run in FIFO order
+        this.table = new TranspositionTable(tableBits);
+        this.engines = ThreadLocal.withInitial(() -> new BotEngine(table));
+    }
+
+    /** The pool every bot game on this server uses. */
+    public static BotScheduler shared() {
+        return shared;
+    }
+
+    /** Searches a copy of the position in the background and passes the chosen column to onMove. */
+    public void think(BitBoard position, long budgetNanos, IntConsumer onMove) {
+        BitBoard copy = new BitBoard(position);
+        searches.incrementAndGet();
+        pool.execute(() -> {
+            int col;
+            try {
+                col = search(copy, System.nanoTime() + budgetNanos, BitBoard.CELLS);
+            } finally {
+                searches.decrementAndGet();
+            }
+            onMove.accept(col);
+        });
+    }
+
+    /**
+     * Searches on the calling thread plus as many helpers as this search's
+     * share of the pool allows, until the deadline or maxDepth.
+     */
+    public int search(BitBoard position, long deadline, int maxDepth) {
+        int share = pool.getParallelism() / Math.max(1, searches.get());
+        AtomicBoolean done = new AtomicBoolean();
+        for (int i = 1; i < share; i++) {
+            BitBoard copy = new BitBoard(position);
+            int firstDepth = 1 + i % 2; // half the helpers run one ply ahead of the main search
+            pool.execute(() -> {
+                if (done.get()) return;
+                BotEngine helper = engines.get();
+                helper.search(copy, deadline, maxDepth, firstDepth, done);
+                nodes.add(helper.nodes());
+            });
+        }
+        BotEngine main = engines.get();
+        try {
+            return main.search(position, deadline, maxDepth, 1, null);
+        } finally {
+            done.set(true);
+            nodes.add(main.nodes());
+        }
+    }
+
+    public int threads() {
+        return pool.getParallelism();
+    }
+
+    /** Positions searched by every thread so far. */
+    public long nodes() {
+        return nodes.sum();
+    }
+
+    public TranspositionTable table() {
+        return table;
+    }
+
+    /**
+     * Stops the pool once the searches already running are done and waits
+     * for them, so their helpers' nodes are counted. The shared scheduler
+     * lives as long as the server and is never closed.
+     */
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
@@ -0,0 +1,221 @@
+import com.example.common.ChatChannel;
+import com.example.common.ChatMessage;
+import com.example.common.Protocol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chat channels: the lobby, one per game (its players and spectators) and
+ * each player's friends. Posting a line only checks the sender's
+ * {@link TokenBucket}, encodes the line once and queues it on its channel,
+ * so the thread reading that player's socket never waits on anyone else.
+ *
+ * <p>Delivery happens on the timer thread, once every {@link #TICK_MILLIS}:
+ * each channel with new lines concatenates them into one batch and queues
+ * that on every member's connection, so a busy lobby costs one write per
+ * member per tick however many lines came in. Chat is optional traffic, and
+ * a member whose connection is congested misses the batch.
+ *
+ * <p>The lobby and game channels remember their last {@link #HISTORY}
+ * lines, which a player joining is sent first. Friends messages go straight
+ * to whoever is online and are not kept; who that is gets looked up by
+ * {@link FriendService}, off the thread that posted the line.
+ */
+public class ChatService {
+    static final int HISTORY = Integer.getInteger("connect4.chatHistory", 50);
+    static final long TICK_MILLIS = Long.getLong("connect4.chatTickMillis", 50);
+    static final int MAX_LENGTH = 300;
+    private static final int BURST = Integer.getInteger("connect4.chatBurst", 5);
+    private static final double PER_SECOND = Double.parseDouble(System.getProperty("connect4.chatPerSecond", "1"));
+
+    private final FriendService friends;
+    private final Channel lobby = new Channel();
+    private final Map<Server.ClientHandler, TokenBucket> allowances = new ConcurrentHashMap<>();
+    // channels with lines waiting for the next tick, each queued once until it is flushed
+    private final Queue<Channel> dirty = new ConcurrentLinkedQueue<>();
+    private final Queue<Direct> direct = new ConcurrentLinkedQueue<>();
+    private final LongAdder posted = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    public ChatService(FriendService friends) {
+        this.friends = friends;
+    }
+
+    /** A new game's channel; its session adds the players and closes it when the game ends. */
+    Channel newGameChannel() {
+        return new Channel();
+    }
+
+    /**
+     * Queues a line from the player. game is the channel of the game they
+     * are playing, null if none; spectators can read a game's chat but not
+     * write to it.
+     */
+    void post(Server.ClientHandler from, ChatMessage cm, Channel game) {
+        String text = cm.getMessage() == null ? "" : cm.getMessage().strip();
+        if (text.isEmpty()) return;
+        if (text.length() > MAX_LENGTH) {
+            text = text.substring(0, MAX_LENGTH);
+        }
+        String channel = cm.getChannel();
+        if (!allowances.computeIfAbsent(from, k -> new TokenBucket(BURST, PER_SECOND)).take()) {
+            limited.increment();
+            deliver(from, Protocol.encode(new ChatMessage("Server", "You are sending messages too fast", 0, channel)));
+            return;
+        }
+        byte[] frame = Protocol.encode(new ChatMessage(from.getPlayerName(), text, cm.getPlayerId(), channel));
+        if (channel == null) {
+            if (game != null && game.post(frame)) posted.increment();
+        } else if (channel.equals(ChatMessage.LOBBY)) {
+            if (lobby.post(from, frame)) posted.increment();
+        } else if (channel.equals(ChatMessage.FRIENDS)) {
+            // the friends list can be a database read, which must not hold up a selector loop
+            friends.withOnlineFriends(from, online -> {
+                List<Server.ClientHandler> to = new ArrayList<>(online.size() + 1);
+                to.add(from);
+                to.addAll(online);
+                direct.add(new Direct(frame, to));
+            });
+            posted.increment();
+        }
+    }
+
+    void handle(Server.ClientHandler player, ChatChannel request) {
+        if (!ChatMessage.LOBBY.equals(request.name())) return;
+        switch (request.op()) {
+            case JOIN -> lobby.join(player);
+            case LEAVE -> lobby.leave(player);
+        }
+    }
+
+    void disconnected(Server.ClientHandler player) {
+        lobby.leave(player);
+        allowances.remove(player);
+    }
+
+    /** Sends every channel's new lines. Runs on the timer thread each tick. */
+    void flush() {
+        Channel channel;
+        while ((channel = dirty.poll()) != null) {
+            channel.flush();
+        }
+        Direct d;
+        while ((d = direct.poll()) != null) {
+            for (Server.ClientHandler player : d.to()) {
+                deliver(player, d.frame());
+            }
+        }
+    }
+
+    public String summary() {
+        return posted.sum() + " lines, " + limited.sum() + " rate-limited, " + skipped.sum()
+                + " batches skipped for congested players, " + lobby.size() + " in the lobby";
+    }
+
+    private void deliver(Server.ClientHandler player, byte[] frames) {
+        if (!player.isConnected()) return;
+        if (!player.writable()) {
+            skipped.increment();
+            return;
+        }
+        try {
+            player.sendFrame(frames);
+        } catch (IOException e) {
+            System.out.println("Could not reach " + player.getPlayerName() + ": " + e.getMessage());
+        }
+    }
+
+    private record Direct(byte[] frame, List<Server.ClientHandler> to) {}
+
+    /**
+     * Members, the lines waiting for the next tick and the last
+     * {@link #HISTORY} lines sent. Everything is under the channel's lock,
+     * so a joiner gets each line exactly once: either in the history, or in
+     * the first batch after they joined.
+     */
+    final class Channel {
+        private final Set<Server.ClientHandler> members = new LinkedHashSet<>();
+        private final List<byte[]> pending = new ArrayList<>();
+        private final byte[][] history = new byte[HISTORY][];
+        private int next; // where the ring's next line goes
+        private int kept;
+        private boolean closed;
+
+        /** Adds the member and sends them the channel's recent lines. */
+        synchronized void join(Server.ClientHandler player) {
+            if (closed || !members.add(player) || kept == 0) return;
+            List<byte[]> recent = new ArrayList<>(kept);
+            for (int i = kept; i > 0; i--) {
+                recent.add(history[(next - i + HISTORY) % HISTORY]);
+            }
+            deliver(player, concat(recent));
+        }
+
+        synchronized void leave(Server.ClientHandler player) {
+            members.remove(player);
+        }
+
+        synchronized int size() {
+            return members.size();
+        }
+
+        // only members may write to the lobby
+        private synchronized boolean post(Server.ClientHandler from, byte[] frame) {
+            return members.contains(from) && post(frame);
+        }
+
+        synchronized boolean post(byte[] frame) {
+            if (closed) return false;
+            if (pending.isEmpty()) {
+                dirty.add(this);
+            }
+            pending.add(frame);
+            return true;
+        }
+
+        /** Sends what is still waiting and lets the members go. */
+        synchronized void close() {
+            flush();
+            closed = true;
+            members.clear();
+        }
+
+        private synchronized void flush() {
+            if (pending.isEmpty()) return;
+            byte[] batch = concat(pending);
+            for (byte[] frame : pending) {
+                history[next] = frame;
+                next = (next + 1) % HISTORY;
+                kept = Math.min(kept + 1, HISTORY);
+            }
+            pending.clear();
+            for (Server.ClientHandler member : members) {
+                deliver(member, batch);
+            }
+        }
+    }
+
+    // frames back to back are still a valid stream, and go out as one queued write
+    private static byte[] concat(List<byte[]> frames) {
+        if (frames.size() == 1) return frames.get(0);
+        int size = 0;
+        for (byte[] f : frames) size += f.length;
+        byte[] out = new byte[size];
+        int pos = 0;
+        for (byte[] f : frames) {
+            System.arraycopy(f, 0, out, pos, f.length);
+            pos += f.length;
+        }
+        return out;
+    }
+}
@@ -1,78 +1,441 @@
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * SQLite access for the server. A fixed pool of long-lived connections is
+ * opened once, each with its own cache of prepared statements, so a login
+ * costs one query instead of a file open, schema read and SQL parse. The
+ * database runs in WAL mode so readers never wait for the writer, and a busy
+ * timeout makes concurrent writers queue inside SQLite instead of failing
+ * with SQLITE_BUSY. User rows are served from a {@link UserCache} where
+ * possible; everything here that writes a user row updates the cache too.
+ */
 public class Database {
-    private static final String DB_URL = "jdbc:sqlite:connect4.db";
+    private static final String DB_URL = "jdbc:sqlite:" + System.getProperty("connect4.db", "connect4.db");
+    private static final int POOL_SIZE = Integer.getInteger("connect4.dbPool", 4);
+    private static final int BUSY_TIMEOUT_MS = 5000;
 
-    public static void connect() {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            if (conn != null) {
-                Statement stmt = conn.createStatement();
-                String sql = "CREATE TABLE IF NOT EXISTS users (" +
-                             "username TEXT PRIMARY KEY," +
-                             "password TEXT NOT NULL," +
-                             "elo INTEGER DEFAULT 1000," +
-                             "friends TEXT)"; // Store as comma-separated usernames
-                stmt.execute(sql);
-                System.out.println("Connected and ensured table exists.");
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    private static final String FIND_USER_SQL = "SELECT password, elo FROM users WHERE username = ?";
+    private static final String FIND_FRIENDS_SQL = "SELECT friend FROM friendships WHERE username = ?";
+    private static final String ADD_FRIEND_SQL = "INSERT OR IGNORE INTO friendships(username, friend) VALUES(?, ?)";
+    private static final String REMOVE_FRIEND_SQL = "DELETE FROM friendships WHERE username = ? AND friend = ?";
+    private static final String INSERT_USER_SQL = "INSERT INTO users(username, password) VALUES(?, ?)";
+    private static final String UPDATE_ELO_SQL = "UPDATE users SET elo = ? WHERE username = ?";
+    private static final String INSERT_MATCH_SQL = "INSERT INTO matches(player1, player2, winner, ranked, moves, rating_change, ended_at) " +
+                                                   "VALUES(?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPSERT_STATS_SQL = "INSERT INTO user_stats(username, wins, losses, draws) VALUES(?, ?, ?, ?) " +
+                                                   "ON CONFLICT(username) DO UPDATE SET wins = wins + excluded.wins, " +
+                                                   "losses = losses + excluded.losses, draws = draws + excluded.draws";
+
+    private static final BlockingQueue<PooledConnection> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static volatile boolean open;
+    private static volatile boolean closed; // for good: connections handed back after close are closed, not pooled
+    private static final UserCache users = new UserCache(Integer.getInteger("connect4.userCache", 10_000));
+
+    /** One pooled connection and the statements already prepared on it. */
+    private static final class PooledConnection {
+        final Connection conn;
+        final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        PooledConnection(Connection conn) {
+            this.conn = conn;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement pstmt = statements.get(sql);
+            if (pstmt == null) {
+                pstmt = conn.prepareStatement(sql);
+                statements.put(sql, pstmt);
             }
+            return pstmt;
+        }
+    }
+
+    private interface SqlWork<T> {
+        T run(PooledConnection c) throws SQLException;
+    }
+
+    public static void connect() {
+        try {
+            openPool();
+            withConnection(c -> {
+                try (Statement stmt = c.conn.createStatement()) {
+                    String sql = "CREATE TABLE IF NOT EXISTS users (" +
+                                 "username TEXT PRIMARY KEY," +
+                                 "password TEXT NOT NULL," +
+                                 "elo INTEGER DEFAULT 1000)";
+                    stmt.execute(sql);
+                    // one row per (user, friend); the primary key is the index every lookup uses
+                    stmt.execute("CREATE TABLE IF NOT EXISTS friendships (" +
+                                 "username TEXT NOT NULL," +
+                                 "friend TEXT NOT NULL," +
+                                 "PRIMARY KEY (username, friend)) WITHOUT ROWID");
+                    stmt.execute("CREATE TABLE IF NOT EXISTS matches (" +
+                                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                                 "player1 TEXT NOT NULL," +
+                                 "player2 TEXT NOT NULL," +
+                                 "winner TEXT," + // NULL for a draw
+                                 "ranked INTEGER NOT NULL," +
+                                 "moves INTEGER NOT NULL," +
+                                 "rating_change INTEGER NOT NULL," + // player1's; player2's is the negation
+                                 "ended_at INTEGER NOT NULL)"); // epoch millis
+                    stmt.execute("CREATE TABLE IF NOT EXISTS user_stats (" +
+                                 "username TEXT PRIMARY KEY," +
+                                 "wins INTEGER NOT NULL DEFAULT 0," +
+                                 "losses INTEGER NOT NULL DEFAULT 0," +
+                                 "draws INTEGER NOT NULL DEFAULT 0)");
+                }
+                migrateFriendsColumn(c);
+                return null;
+            });
+            System.out.println("Connected and ensured table exists.");
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
     }
 
+    /**
+     * Closes the pooled connections at shutdown, which also checkpoints the WAL
+     * into the main file. Connections still lent out are closed as they come
+     * back, and any later use fails instead of opening a new pool.
+     */
+    public static synchronized void close() {
+        closed = true;
+        PooledConnection c;
+        while ((c = pool.poll()) != null) {
+            closeQuietly(c);
+        }
+        open = false;
+    }
+
     public static String insertUser(String username, String password) {
-        String insertUserSql = "INSERT INTO users(username, password) VALUES(?, ?)";
-        String findUserSql = "SELECT password FROM users WHERE username = ?";
-
-        try (Connection conn = DriverManager.getConnection(DB_URL); PreparedStatement pstmt = conn.prepareStatement(findUserSql)) {
-            pstmt.setString(1, username);
-            pstmt.executeQuery();
-            ResultSet rs = pstmt.executeQuery();
-            if(rs.next()) {
+        // insert first and let the primary key decide, so two sign-ups racing for a name cannot both pass a lookup
+        try {
+            withConnection(c -> {
+                PreparedStatement insert = c.prepare(INSERT_USER_SQL);
+                insert.setString(1, username);
+                insert.setString(2, password);
+                insert.executeUpdate();
+                return null;
+            });
+        } catch (SQLException e) {
+            if ((e.getErrorCode() & 0xff) == SQLITE_CONSTRAINT) {
                 return "Username Taken";
             }
-            else{
-                try (PreparedStatement insertStmt = conn.prepareStatement(insertUserSql)) {
-                    insertStmt.setString(1, username);
-                    insertStmt.setString(2, password);
-                    insertStmt.executeUpdate();
-                    System.out.println("User inserted.");
-                    return "SUCCESS";
-                }
-            }
+            System.out.println("Database error: " + e.getMessage());
+            return "Internal error.";
+        }
+        users.put(new UserCache.User(username, password, 1000, List.of()));
+        System.out.println("User inserted.");
+        return "SUCCESS";
+    }
 
+    public static String loginUser(String username, String password) {
+        UserCache.User user;
+        try {
+            user = findUser(username);
         } catch (SQLException e) {
-            System.out.println(e.getMessage());
             System.out.println("Database error: " + e.getMessage());
             return "Internal error.";
         }
+        if (user == null) {
+            return "Username does not exist.";
+        }
+
+        String storedPassword = user.password();
+        if (!storedPassword.equals(password)) {
+            return "Incorrect password.";
+        }
+        else{
+            return "SUCCESS";
+        }
     }
 
-    public static String loginUser(String username, String password) {
-        String findUserSql = "SELECT password FROM users WHERE username = ?";
+    public static int getElo(String username) {
+        try {
+            UserCache.User user = findUser(username);
+            return user != null ? user.elo() : 1000;
+        } catch (SQLException e) {
+            System.out.println("Database error: " + e.getMessage());
+            return 1000;
+        }
+    }
 
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement pstmt = conn.prepareStatement(findUserSql)) {
+    /**
+     * The rating as the table has it, skipping the cached row: with shards,
+     * another process may have changed it since this one cached it. A rating
+     * this process has queued but not yet committed still wins.
+     */
+    public static int reloadElo(String username) {
+        users.invalidate(username);
+        return getElo(username);
+    }
 
-            pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
+    /** The user's friends list, empty for an unknown user. */
+    public static List<String> getFriends(String username) {
+        try {
+            UserCache.User user = findUser(username);
+            return user != null ? user.friends() : List.of();
+        } catch (SQLException e) {
+            System.out.println("Database error: " + e.getMessage());
+            return List.of();
+        }
+    }
 
-            if (!rs.next()) {
+    public static String addFriend(String username, String friend) {
+        try {
+            if (username.equals(friend) || findUser(friend) == null) {
                 return "Username does not exist.";
             }
+            updateFriendship(ADD_FRIEND_SQL, username, friend);
+            return "SUCCESS";
+        } catch (SQLException e) {
+            System.out.println("Database error: " + e.getMessage());
+            return "Internal error.";
+        }
+    }
+
+    public static String removeFriend(String username, String friend) {
+        try {
+            updateFriendship(REMOVE_FRIEND_SQL, username, friend);
+            return "SUCCESS";
+        } catch (SQLException e) {
+            System.out.println("Database error: " + e.getMessage());
+            return "Internal error.";
+        }
+    }
+
+    private static void updateFriendship(String sql, String username, String friend) throws SQLException {
+        try {
+            withConnection(c -> {
+                PreparedStatement pstmt = c.prepare(sql);
+                pstmt.setString(1, username);
+                pstmt.setString(2, friend);
+                return pstmt.executeUpdate();
+            });
+        } finally {
+            users.invalidate(username); // the cached list is reloaded on next use
+        }
+    }
+
+    // databases from before the friendships table kept friends as a comma-separated users.friends column
+    private static void migrateFriendsColumn(PooledConnection c) throws SQLException {
+        boolean hasColumn = false;
+        try (Statement stmt = c.conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(users)")) {
+            while (rs.next()) {
+                hasColumn |= rs.getString("name").equals("friends");
+            }
+        }
+        if (!hasColumn) return;
+        inTransaction(c, () -> {
+            int moved = 0;
+            try (Statement stmt = c.conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT username, friends FROM users WHERE friends IS NOT NULL AND friends != ''");
+                 PreparedStatement insert = c.conn.prepareStatement(ADD_FRIEND_SQL)) {
+                while (rs.next()) {
+                    for (String friend : rs.getString("friends").split(",")) {
+                        if (friend.isBlank()) continue;
+                        insert.setString(1, rs.getString("username"));
+                        insert.setString(2, friend.trim());
+                        insert.addBatch();
+                        moved++;
+                    }
+                }
+                insert.executeBatch();
+            }
+            try (Statement stmt = c.conn.createStatement()) {
+                stmt.execute("ALTER TABLE users DROP COLUMN friends");
+            }
+            System.out.println("Moved " + moved + " friends into the friendships table.");
+        });
+    }
+
+    /** Called when a new rating is queued for writing, so logins see it before it is committed. */
+    static void ratingChanged(String username, int elo) {
+        users.updateElo(username, elo);
+    }
+
+    static UserCache userCache() {
+        return users;
+    }
+
+    // the user's row from the cache, or from the database on a miss; null if there is no such user
+    private static UserCache.User findUser(String username) throws SQLException {
+        UserCache.User user = users.get(username);
+        if (user != null) {
+            return user;
+        }
+        Object token = users.beginLoad(username);
+        try {
+            user = withConnection(c -> {
+                PreparedStatement pstmt = c.prepare(FIND_USER_SQL);
+                pstmt.setString(1, username);
+                String password;
+                int elo;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    password = rs.getString("password");
+                    elo = rs.getInt("elo");
+                }
+                PreparedStatement friends = c.prepare(FIND_FRIENDS_SQL);
+                friends.setString(1, username);
+                List<String> list = new ArrayList<>();
+                try (ResultSet rs = friends.executeQuery()) {
+                    while (rs.next()) {
+                        list.add(rs.getString(1));
+                    }
+                }
+                return new UserCache.User(username, password, elo, List.copyOf(list));
+            });
+        } finally {
+            users.loaded(username, token, user);
+        }
+        return user;
+    }
 
-            String storedPassword = rs.getString("password");
-            if (!storedPassword.equals(password)) {
-                return "Incorrect password.";
+    /**
+     * Commits a batch from {@link WriteBehind} as one transaction: all of it
+     * is stored or, if anything fails, none of it.
+     */
+    static void applyBatch(List<WriteBehind.GameResult> batch) throws SQLException {
+        withConnection(c -> inTransaction(c, () -> {
+            for (WriteBehind.GameResult result : batch) {
+                WriteBehind.MatchResult m = result.match();
+                PreparedStatement pstmt = c.prepare(INSERT_MATCH_SQL);
+                pstmt.setString(1, m.player1());
+                pstmt.setString(2, m.player2());
+                pstmt.setString(3, m.winner());
+                pstmt.setBoolean(4, m.ranked());
+                pstmt.setInt(5, m.moves());
+                pstmt.setInt(6, m.ratingChange());
+                pstmt.setLong(7, m.endedAt());
+                pstmt.executeUpdate();
+                for (WriteBehind.StatUpdate u : new WriteBehind.StatUpdate[] {result.stats1(), result.stats2()}) {
+                    pstmt = c.prepare(UPSERT_STATS_SQL);
+                    pstmt.setString(1, u.username());
+                    pstmt.setInt(2, u.wins());
+                    pstmt.setInt(3, u.losses());
+                    pstmt.setInt(4, u.draws());
+                    pstmt.executeUpdate();
+                }
+                for (WriteBehind.RatingUpdate r : new WriteBehind.RatingUpdate[] {result.rating1(), result.rating2()}) {
+                    if (r == null) continue;
+                    pstmt = c.prepare(UPDATE_ELO_SQL);
+                    pstmt.setInt(1, r.elo());
+                    pstmt.setString(2, r.username());
+                    pstmt.executeUpdate();
+                }
             }
-            else{
-                return "SUCCESS";
+        }));
+        for (WriteBehind.GameResult result : batch) {
+            for (WriteBehind.RatingUpdate r : new WriteBehind.RatingUpdate[] {result.rating1(), result.rating2()}) {
+                if (r != null) {
+                    users.eloCommitted(r.username(), r.elo());
+                }
             }
+        }
+    }
 
+    /**
+     * {@link WriteBehind} gave up on the batch, so its ratings will never
+     * reach the table: the cache stops showing them and reads the table's
+     * again.
+     */
+    static void batchDropped(List<WriteBehind.GameResult> batch) {
+        for (WriteBehind.GameResult result : batch) {
+            for (WriteBehind.RatingUpdate r : new WriteBehind.RatingUpdate[] {result.rating1(), result.rating2()}) {
+                if (r != null) {
+                    users.eloDropped(r.username(), r.elo());
+                }
+            }
+        }
+    }
+
+    private interface SqlBlock {
+        void run() throws SQLException;
+    }
+
+    private static Void inTransaction(PooledConnection c, SqlBlock block) throws SQLException {
+        c.conn.setAutoCommit(false);
+        try {
+            block.run();
+            c.conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            c.conn.rollback();
+            throw e;
+        } finally {
+            c.conn.setAutoCommit(true);
+        }
+        return null;
+    }
+
+    // borrows a connection for the duration of the work and always hands it back
+    private static <T> T withConnection(SqlWork<T> work) throws SQLException {
+        if (!open) {
+            openPool();
+        }
+        PooledConnection c;
+        long start = System.nanoTime();
+        try {
+            // polls rather than takes, so a thread still waiting when the pool closes finds out
+            while ((c = pool.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                if (closed) throw new SQLException("Database is closed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection", e);
+        }
+        long taken = System.nanoTime();
+        Metrics.DB_WAIT.record(taken - start);
+        try {
+            return work.run(c);
+        } finally {
+            giveBack(c);
+            Metrics.DB_QUERY.record(System.nanoTime() - taken);
+        }
+    }
+
+    // close() sets the flag before it drains, so whichever of the two runs second closes this connection
+    private static void giveBack(PooledConnection c) {
+        pool.add(c);
+        if (closed) {
+            while ((c = pool.poll()) != null) {
+                closeQuietly(c);
+            }
+        }
+    }
+
+    private static void closeQuietly(PooledConnection c) {
+        try {
+            c.conn.close();
         } catch (SQLException e) {
             System.out.println("Database error: " + e.getMessage());
-            return "Internal error.";
         }
     }
-}
 
+    private static synchronized void openPool() throws SQLException {
+        if (closed) throw new SQLException("Database is closed");
+        if (open) return;
+        for (int i = 0; i < POOL_SIZE; i++) {
+            Connection conn = DriverManager.getConnection(DB_URL);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA synchronous=NORMAL"); // durable across app crashes; WAL keeps it consistent
+                stmt.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MS);
+            }
+            pool.add(new PooledConnection(conn));
+        }
+        open = true;
+    }
+}
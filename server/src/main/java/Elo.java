@@ -0,0 +1,18 @@
+/**
+ * Standard Elo rating update with a fixed K-factor.
+ */
+public final class Elo {
+    static final int K = 32;
+
+    private Elo() {}
+
+    /**
+     * New ratings for a finished game. {@code scoreA} is 1 if A won, 0 if B
+     * won and 0.5 for a draw.
+     */
+    public static int[] update(int ratingA, int ratingB, double scoreA) {
+        double expectedA = 1.0 / (1.0 + Math.pow(10, (ratingB - ratingA) / 400.0));
+        int delta = (int) Math.round(K * (scoreA - expectedA));
+        return new int[]{ratingA + delta, ratingB - delta};
+    }
+}
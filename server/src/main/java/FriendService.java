@@ -0,0 +1,178 @@
+import com.example.common.ChatMessage;
+import com.example.common.FriendList;
+import com.example.common.FriendRequest;
+import com.example.common.Invite;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * Friends lists and game invitations. A player's friends come from the
+ * user cache (one indexed range read on a miss) and are checked one by one
+ * against the map of connected players, so answering "who is online" costs
+ * one hash lookup per friend and never scans anything else.
+ *
+ * <p>An invite is only delivered to an online friend. It stays open until
+ * the friend answers or leaves, and accepting it starts a casual game
+ * between the two directly, bypassing the matchmaking queue. The game is
+ * only started if neither player has been seated in another one meanwhile;
+ * otherwise the accepting player is told the invite was declined.
+ *
+ * <p>Requests can reach the database, and {@link #handle} is called from a
+ * selector loop in nio mode, so they run on virtual threads instead. Each
+ * player's requests still run one at a time and in the order they came in.
+ */
+public class FriendService {
+    /** Keeps a FriendList inside one frame even for very large friends lists. */
+    static final int MAX_LISTED = 1000;
+
+    private final Map<String, Server.ClientHandler> clients;
+    // starts a casual game between inviter and invitee; false if either is already in one
+    private final BiPredicate<Server.ClientHandler, Server.ClientHandler> startGame;
+    // invitee -> (inviter -> inviter's planet)
+    private final Map<String, Map<String, String>> invites = new ConcurrentHashMap<>();
+    private final Executor executor = Executors.newVirtualThreadPerTaskExecutor();
+    // each player's last queued request, which their next one runs after
+    private final Map<String, CompletableFuture<Void>> queued = new ConcurrentHashMap<>();
+
+    public FriendService(Map<String, Server.ClientHandler> clients,
+                         BiPredicate<Server.ClientHandler, Server.ClientHandler> startGame) {
+        this.clients = clients;
+        this.startGame = startGame;
+    }
+
+    public List<String> onlineFriends(String username) {
+        List<String> online = new ArrayList<>();
+        for (String friend : Database.getFriends(username)) {
+            Server.ClientHandler player = clients.get(friend);
+            if (player != null && player.isConnected()) {
+                online.add(friend);
+                if (online.size() == MAX_LISTED) break;
+            }
+        }
+        return online;
+    }
+
+    /**
+     * Looks up which of the player's friends are online, off the calling
+     * thread and after the player's earlier requests, and hands them to
+     * then. The list may miss a friend who logs in meanwhile.
+     */
+    void withOnlineFriends(Server.ClientHandler player, Consumer<List<Server.ClientHandler>> then) {
+        later(player, () -> {
+            List<Server.ClientHandler> online = new ArrayList<>();
+            for (String friend : Database.getFriends(player.getPlayerName())) {
+                Server.ClientHandler other = clients.get(friend);
+                if (other != null) online.add(other);
+            }
+            then.accept(online);
+        });
+    }
+
+    void handle(Server.ClientHandler player, FriendRequest request) {
+        later(player, () -> {
+            String name = player.getPlayerName();
+            switch (request.op()) {
+                case ADD -> {
+                    String result = Database.addFriend(name, request.username());
+                    System.out.println(name + " adds " + request.username() + ": " + result);
+                    if (!result.equals("SUCCESS")) {
+                        player.send(new ChatMessage("Server", "Could not add " + request.username() + ": " + result,
+                                0, ChatMessage.FRIENDS));
+                    }
+                }
+                case REMOVE -> Database.removeFriend(name, request.username());
+                case LIST -> player.send(new FriendList(onlineFriends(name)));
+            }
+        });
+    }
+
+    void handle(Server.ClientHandler player, Invite invite) {
+        later(player, () -> {
+            String name = player.getPlayerName();
+            switch (invite.op()) {
+                case SEND -> {
+                    Server.ClientHandler friend = clients.get(invite.player());
+                    if (friend == null || friend.inGame() || !Database.getFriends(name).contains(invite.player())) {
+                        player.send(new Invite(Invite.Op.DECLINE, invite.player(), null));
+                        return;
+                    }
+                    invites.computeIfAbsent(invite.player(), k -> new ConcurrentHashMap<>())
+                            .put(name, invite.planetPath() == null ? "" : invite.planetPath());
+                    deliver(friend, new Invite(Invite.Op.SEND, name, invite.planetPath()));
+                }
+                case ACCEPT -> {
+                    String inviterPlanet = takeInvite(name, invite.player());
+                    Server.ClientHandler inviter = clients.get(invite.player());
+                    if (inviterPlanet == null || inviter == null || inviter.inGame() || player.inGame()) {
+                        player.send(new Invite(Invite.Op.DECLINE, invite.player(), null));
+                        return;
+                    }
+                    if (!inviterPlanet.isEmpty()) {
+                        inviter.setPlanetPath(inviterPlanet);
+                    }
+                    if (invite.planetPath() != null) {
+                        player.setPlanetPath(invite.planetPath());
+                    }
+                    if (!startGame.test(inviter, player)) { // one of them was seated elsewhere since the check
+                        player.send(new Invite(Invite.Op.DECLINE, invite.player(), null));
+                    }
+                }
+                case DECLINE -> {
+                    takeInvite(name, invite.player());
+                    Server.ClientHandler inviter = clients.get(invite.player());
+                    if (inviter != null) {
+                        deliver(inviter, new Invite(Invite.Op.DECLINE, name, null));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the invites waiting for the player. Invites the player sent are
+     * left to fail when answered, since the inviter is no longer online.
+     */
+    void disconnected(Server.ClientHandler player) {
+        invites.remove(player.getPlayerName());
+        queued.remove(player.getPlayerName());
+    }
+
+    private interface Request {
+        void run() throws IOException;
+    }
+
+    // runs the request on a virtual thread once the player's previous one is done
+    private void later(Server.ClientHandler player, Request request) {
+        queued.compute(player.getPlayerName(), (name, last) ->
+                (last == null ? CompletableFuture.<Void>completedFuture(null) : last).thenRunAsync(() -> {
+                    try {
+                        request.run();
+                    } catch (IOException | RuntimeException e) { // caught, or the player's later requests never run
+                        System.out.println("Could not answer " + name + ": " + e);
+                    }
+                }, executor));
+    }
+
+    // a failed write to the other player is their connection's problem, not the sender's
+    private static void deliver(Server.ClientHandler to, Object msg) {
+        try {
+            to.send(msg);
+        } catch (IOException e) {
+            System.out.println("Could not reach " + to.getPlayerName() + ": " + e.getMessage());
+        }
+    }
+
+    private String takeInvite(String invitee, String inviter) {
+        Map<String, String> open = invites.get(invitee);
+        return open == null ? null : open.remove(inviter);
+    }
+}
@@ -0,0 +1,52 @@
+import com.example.common.BitBoard;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * Prints a journaled game: players, result, the moves and the final board.
+ *
+ * <pre>java JournalReplay [file] [game id]</pre>
+ *
+ * Without an id it prints the last game in the journal. Games that ended
+ * before the journal last rolled are found in its archived segments, as
+ * long as those are still next to it.
+ */
+public class JournalReplay {
+
+    public static void main(String[] args) throws Exception {
+        try (MoveJournal journal = MoveJournal.read(Path.of(args.length > 0 ? args[0] : "games-5555.journal"))) {
+            int id = args.length > 1 ? Integer.parseInt(args[1]) : journal.nextId() - 1;
+            MoveJournal.Game game = journal.replay(id);
+            if (game == null) {
+                System.out.println("No game " + id);
+                return;
+            }
+            System.out.printf("Game %d, %s%s vs %s, started %s%n", game.id(), game.ranked() ? "ranked, " : "",
+                    game.player1(), game.player2(), Instant.ofEpochMilli(game.startedAt()));
+            StringBuilder moves = new StringBuilder();
+            char[][] grid = new char[BitBoard.HEIGHT][BitBoard.WIDTH];
+            int[] heights = new int[BitBoard.WIDTH];
+            for (int i = 0; i < game.moves().length; i++) {
+                int col = game.moves()[i];
+                moves.append(col + 1); // columns as players count them
+                grid[heights[col]++][col] = i % 2 == 0 ? 'X' : 'O';
+            }
+            System.out.println("Moves: " + moves);
+            for (int row = BitBoard.HEIGHT - 1; row >= 0; row--) {
+                StringBuilder line = new StringBuilder("|");
+                for (int col = 0; col < BitBoard.WIDTH; col++) {
+                    line.append(grid[row][col] == 0 ? '.' : grid[row][col]);
+                }
+                System.out.println(line.append('|'));
+            }
+            System.out.println(switch (game.outcome()) {
+                case -1 -> "Unfinished";
+                case 0 -> "Draw";
+                case 1 -> game.player1() + " (X) won";
+                case MoveJournal.ABANDONED -> "Abandoned";
+                default -> game.player2() + " (O) won";
+            });
+        }
+    }
+}
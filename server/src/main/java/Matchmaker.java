@@ -0,0 +1,74 @@
+import com.example.common.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Casual matchmaking. At most one player is ever left waiting: whoever asks
+ * to play while someone is waiting is paired with them on the spot, on the
+ * asking player's own thread. The waiting seat is a single compare-and-set
+ * slot, so there is no lock, no polling thread and no delay between the
+ * second "Play" and the START.
+ */
+public class Matchmaker {
+    private record Ticket(Server.ClientHandler player, long enqueuedAt) {}
+
+    private final AtomicReference<Ticket> waiting = new AtomicReference<>();
+    private final BiConsumer<Server.ClientHandler, Server.ClientHandler> startGame;
+    // recorded by whichever connection thread or selector loop makes the pair
+    private final LatencyHistogram queueTime = new LatencyHistogram(Metrics.STRIPES);
+
+    public Matchmaker(BiConsumer<Server.ClientHandler, Server.ClientHandler> startGame) {
+        this.startGame = startGame;
+    }
+
+    public void enqueue(Server.ClientHandler player) {
+        Ticket mine = new Ticket(player, System.nanoTime());
+        while (true) {
+            Ticket other = waiting.get();
+            if (other == null) {
+                if (waiting.compareAndSet(null, mine)) {
+                    System.out.println(player.getPlayerName() + " wants to play!");
+                    return;
+                }
+            } else if (other.player() == player) {
+                return; // already queued
+            } else if (waiting.compareAndSet(other, null)) {
+                if (!other.player().isConnected()) {
+                    continue; // left while waiting, try again with the slot empty
+                }
+                long now = System.nanoTime();
+                queueTime.record(now - other.enqueuedAt());
+                queueTime.record(0); // the second player did not wait at all
+                startGame.accept(other.player(), player);
+                return;
+            }
+        }
+    }
+
+    /** Drops a player who disconnected while waiting. */
+    public void cancel(Server.ClientHandler player) {
+        Ticket t = waiting.get();
+        if (t != null && t.player() == player) {
+            waiting.compareAndSet(t, null);
+        }
+    }
+
+    /** Takes the waiting player out of the queue if they have waited at least this long, else null. */
+    public Server.ClientHandler pollWaiting(long minWaitNanos) {
+        Ticket t = waiting.get();
+        long now = System.nanoTime();
+        if (t == null || now - t.enqueuedAt() < minWaitNanos || !waiting.compareAndSet(t, null)) {
+            return null;
+        }
+        if (!t.player().isConnected()) {
+            return null;
+        }
+        queueTime.record(now - t.enqueuedAt());
+        return t.player();
+    }
+
+    public LatencyHistogram queueTime() {
+        return queueTime;
+    }
+}
@@ -0,0 +1,102 @@
+import com.example.common.LatencyHistogram;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms for the server's hot paths,
+ * served in the Prometheus text format at http://localhost:port/metrics.
+ * Recording is a LongAdder add or a striped {@link LatencyHistogram}
+ * record: nothing is allocated, nothing is locked and threads on different
+ * cores touch different cache lines. All the formatting happens when the
+ * endpoint is scraped.
+ */
+final class Metrics {
+    // stripes for a histogram many threads record into at once: one per core
+    static final int STRIPES = Runtime.getRuntime().availableProcessors();
+
+    static final LatencyHistogram LOGIN = new LatencyHistogram(STRIPES);
+    static final LatencyHistogram DB_WAIT = new LatencyHistogram(STRIPES);
+    static final LatencyHistogram DB_QUERY = new LatencyHistogram(STRIPES);
+    static final LatencyHistogram MOVE = new LatencyHistogram(STRIPES);
+    static final LongAdder BYTES_IN = new LongAdder();
+    static final LongAdder BYTES_OUT = new LongAdder();
+    static final LongAdder MOVES = new LongAdder();
+
+    private static final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    static {
+        histogram("connect4_login_seconds", "Time to check credentials and register a player.", LOGIN);
+        histogram("connect4_db_wait_seconds", "Time spent waiting for a pooled database connection.", DB_WAIT);
+        histogram("connect4_db_query_seconds", "Time a database call held its connection.", DB_QUERY);
+        histogram("connect4_move_seconds", "Time to check, journal and relay a move, until it is queued for the opponent.", MOVE);
+        counter("connect4_received_bytes_total", "Bytes read from players.", BYTES_IN::sum);
+        counter("connect4_sent_bytes_total", "Bytes written to players.", BYTES_OUT::sum);
+        counter("connect4_moves_total", "Moves played.", MOVES::sum);
+    }
+
+    private Metrics() {}
+
+    private record Metric(String name, String help, String type, LongSupplier value, LatencyHistogram histogram) {}
+
+    static void counter(String name, String help, LongSupplier value) {
+        metrics.add(new Metric(name, help, "counter", value, null));
+    }
+
+    static void gauge(String name, String help, LongSupplier value) {
+        metrics.add(new Metric(name, help, "gauge", value, null));
+    }
+
+    /** Exposed as a summary: the 50th, 90th and 99th percentiles, the sum and the count, in seconds. */
+    static void histogram(String name, String help, LatencyHistogram histogram) {
+        metrics.add(new Metric(name, help, "summary", null, histogram));
+    }
+
+    static String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Metric m : metrics) {
+            sb.append("# HELP ").append(m.name()).append(' ').append(m.help()).append('\n');
+            sb.append("# TYPE ").append(m.name()).append(' ').append(m.type()).append('\n');
+            if (m.histogram() == null) {
+                sb.append(m.name()).append(' ').append(m.value().getAsLong()).append('\n');
+                continue;
+            }
+            LatencyHistogram h = m.histogram();
+            for (double q : new double[] {0.5, 0.9, 0.99}) {
+                sb.append(m.name()).append("{quantile=\"").append(q).append("\"} ")
+                        .append(seconds(h.percentile(q * 100))).append('\n');
+            }
+            sb.append(m.name()).append("_sum ").append(seconds(h.sum())).append('\n');
+            sb.append(m.name()).append("_count ").append(h.count()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Serves {@link #scrape()} on the loopback interface only. */
+    static void serve(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start(); // one dispatcher thread is plenty for a scraper
+        System.out.println("Metrics at http://localhost:" + port + "/metrics");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+}
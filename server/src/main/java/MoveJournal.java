@@ -0,0 +1,664 @@
+import com.example.common.GameEvent;
+import com.example.common.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only journal of every game: who played, each move, and how it
+ * ended. Game threads only enqueue a small record; one writer thread appends
+ * whatever has piled up and syncs the file at most every {@link #SYNC_NANOS},
+ * so a burst of moves from many games costs one fsync and relaying a move
+ * never waits on the disk.
+ *
+ * <pre>
+ * file  = magic "C4JN", u32 version, u32 first id, record*     (version 1 has no first id)
+ * start = u8 1, u32 game, u64 started at (ms), u8 ranked, str player1, str player2, str icon1, str icon2
+ * move  = u8 0x10 | column, u32 game                      (5 bytes)
+ * end   = u8 2, u32 game, u8 outcome                       (0 draw, 1 or 2 the winner, 3 abandoned)
+ * str   = u16 length, UTF-8
+ * </pre>
+ *
+ * Records of concurrent games interleave. Opening the journal scans it once
+ * to index where each game starts, to cut off a record torn by a crash and
+ * to find the games the last run left {@link #unfinished}; {@link #replay}
+ * reads a game back from its start, and {@link #stream} sends it to a
+ * client as the events it was played as.
+ *
+ * <p>The file is the current segment. Once it passes {@link #SEGMENT_BYTES}
+ * the writer rolls: it writes a new segment holding the games still running
+ * (their start and moves so far, which it keeps in memory) and renames the
+ * old one to {@code <file>.<first id>}. Every game in an archived segment has
+ * ended there or been carried over, so startup only ever scans the current
+ * segment. Archives can be kept for replays, which look a game up in them
+ * when the current segment does not have it, or deleted.
+ *
+ * <p>A server holds a lock on {@code <file>.lock} while the journal is
+ * open, so a second server pointed at the same file fails to open it
+ * instead of interleaving its records. {@link #read} opens a journal for
+ * looking only, without the lock.
+ */
+public class MoveJournal implements AutoCloseable {
+    static final int MAGIC = 0x43344A4E; // "C4JN"
+    static final int VERSION = 2;
+    static final int HEADER = 12;
+    static final int CAPACITY = 65536;
+    static final int MAX_BATCH = 4096;
+    /** End outcome of a game nobody came back to finish. */
+    static final int ABANDONED = 3;
+    static final long SYNC_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("connect4.journalSyncMillis", 50));
+    static final long SEGMENT_BYTES = Long.getLong("connect4.journalSegmentMB", 64) << 20;
+
+    private static final byte START = 1;
+    private static final byte END = 2;
+    private static final byte MOVE = 0x10;
+
+    /** One pending record. Appended in submission order. */
+    sealed interface Entry permits Start, Move, End {}
+
+    record Start(int game, long startedAt, boolean ranked, String player1, String player2,
+                 String icon1, String icon2) implements Entry {}
+
+    record Move(int game, int column) implements Entry {}
+
+    /** outcome is 0 for a draw, {@link #ABANDONED}, otherwise the winner's player id. */
+    record End(int game, int outcome) implements Entry {}
+
+    /** A game read back from the journal. outcome is -1 while the game has no end record. */
+    public record Game(int id, long startedAt, boolean ranked, String player1, String player2,
+                       String icon1, String icon2, byte[] moves, int outcome) {
+
+        /** The game as player {@code viewer} (1 or 2) was sent it, START to WIN or DRAW. */
+        public List<GameEvent> events(int viewer) {
+            List<GameEvent> events = new ArrayList<>(moves.length + 2);
+            events.add(viewer == 1
+                    ? new GameEvent(GameEvent.Type.START, player2, icon2, 1)
+                    : new GameEvent(GameEvent.Type.START, player1, icon1, 2));
+            for (int i = 0; i < moves.length; i++) {
+                events.add(new GameEvent(GameEvent.Type.MOVE, moves[i], i % 2 == 0 ? player1 : player2));
+            }
+            if (outcome == 0) {
+                events.add(new GameEvent(GameEvent.Type.DRAW, null));
+            } else if (outcome == 1 || outcome == 2) {
+                events.add(new GameEvent(GameEvent.Type.WIN, outcome == 1 ? player1 : player2));
+            }
+            return events;
+        }
+    }
+
+    // a game of the current segment with no end record yet, as far as the writer has appended it
+    private static final class Running {
+        final Start start;
+        final byte[] moves = new byte[42];
+        int count;
+
+        Running(Start start) {
+            this.start = start;
+        }
+
+        Game game() {
+            return new Game(start.game(), start.startedAt(), start.ranked(), start.player1(), start.player2(),
+                    start.icon1(), start.icon2(), Arrays.copyOf(moves, count), -1);
+        }
+    }
+
+    private static final Entry STOP = new Move(0, 0);
+
+    private final Path path;
+    // the current segment; the writer replaces it when it rolls
+    private FileChannel channel;
+    // holds the lock on <file>.lock; null if opened with read
+    private final FileChannel lockFile;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private final Thread writer = new Thread(this::drain, "journal-writer");
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private volatile boolean closed;
+    // file offset of each start record in the current segment, by game id
+    private final Map<Integer, Long> starts = new HashMap<>();
+    // the writer's copy of the games still running, carried into the next segment when it rolls
+    private final Map<Integer, Running> running = new LinkedHashMap<>();
+    // games started but not ended when the journal was opened
+    private List<Game> unfinished = List.of();
+    private volatile long position;
+    private volatile long appended;
+    private volatile long syncs;
+    private volatile long rolls;
+
+    private MoveJournal(Path path, FileChannel channel, FileChannel lockFile) {
+        this.path = path;
+        this.channel = channel;
+        this.lockFile = lockFile;
+    }
+
+    /**
+     * Opens (or creates) the journal, indexes the games in it and starts the
+     * writer. Fails if another process has it open.
+     */
+    public static MoveJournal open(Path path) throws IOException {
+        FileChannel lockFile = FileChannel.open(sibling(path, "lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileChannel channel = null;
+        try {
+            FileLock lock;
+            try {
+                lock = lockFile.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null; // this process has it open already
+            }
+            if (lock == null) {
+                throw new IOException(path + " is in use by another server");
+            }
+            Path next = sibling(path, "next");
+            if (Files.exists(next)) { // a roll was cut short: the old segment stays current unless it was already archived
+                if (Files.exists(path)) {
+                    Files.delete(next);
+                } else {
+                    Files.move(next, path, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            MoveJournal journal = new MoveJournal(path, channel, lockFile);
+            journal.scan();
+            journal.writer.setDaemon(true);
+            journal.writer.start();
+            return journal;
+        } catch (IOException e) {
+            if (channel != null) channel.close();
+            lockFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing journal to look at, without the lock: the server may
+     * be appending to it meanwhile. Nothing can be journaled through it.
+     */
+    public static MoveJournal read(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        MoveJournal journal = new MoveJournal(path, channel, null);
+        journal.closed = true;
+        try {
+            journal.scan();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /** Queues the start of a game and returns the id its moves are journaled under. */
+    public int start(String player1, String player2, String icon1, String icon2, boolean ranked) {
+        int id = nextId.getAndIncrement();
+        submit(new Start(id, System.currentTimeMillis(), ranked, player1, player2, icon1, icon2));
+        return id;
+    }
+
+    public void move(int game, int column) {
+        submit(new Move(game, column));
+    }
+
+    public void end(int game, int outcome) {
+        submit(new End(game, outcome));
+    }
+
+    /**
+     * Reads a game back, finished or not, or returns null if the journal has
+     * no such game (yet: the writer may not have appended it). A game that
+     * ended before the journal rolled is read from the archived segments.
+     */
+    public synchronized Game replay(int id) throws IOException { // holds off a roll, which moves the file
+        Long offset = starts.get(id);
+        if (offset == null) return replayArchived(id);
+        // a game carried into this segment has its moves so far here too
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readGame(in, offset, id);
+        }
+    }
+
+    /**
+     * Writes a game to a client as the events it would have seen playing it
+     * as {@code viewer} (1 or 2): its START, every MOVE and the WIN or DRAW.
+     * Returns false, having written nothing, if there is no such game.
+     */
+    public boolean stream(int id, int viewer, DataOutputStream out) throws IOException {
+        Game game = replay(id);
+        if (game == null) return false;
+        for (GameEvent event : game.events(viewer)) {
+            Protocol.write(out, event);
+        }
+        out.flush();
+        return true;
+    }
+
+    /**
+     * The game in the archived segments, from the one it started in through
+     * the ones it was carried into, until one has its end. Null if no
+     * archive has it.
+     */
+    private Game replayArchived(int id) throws IOException {
+        Game game = null;
+        for (Path archive : archives(id)) {
+            try (FileChannel in = FileChannel.open(archive, StandardOpenOption.READ)) {
+                Game found = readGame(in, recordsStart(in), id);
+                if (found != null) game = found;
+            }
+            if (game != null && game.outcome() >= 0) break;
+        }
+        return game;
+    }
+
+    // the archives a game can be in, oldest first: the one holding its id and every later one
+    private List<Path> archives(int id) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        String prefix = path.getFileName() + ".";
+        Map<Integer, Path> byFirstId = new TreeMap<>();
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (!name.startsWith(prefix)) continue;
+                try {
+                    byFirstId.put(Integer.parseInt(name.substring(prefix.length())), p);
+                } catch (NumberFormatException e) {
+                    // <file>.lock or <file>.next
+                }
+            }
+        }
+        List<Path> from = new ArrayList<>();
+        for (Map.Entry<Integer, Path> e : byFirstId.entrySet()) {
+            if (e.getKey() > id || from.isEmpty()) {
+                from.add(e.getValue());
+            } else {
+                from.set(0, e.getValue()); // a later segment that still starts at or below id
+            }
+        }
+        return from;
+    }
+
+    // reads one game's records from offset on, skipping every other game's; null if its start never comes
+    private static Game readGame(FileChannel in, long offset, int id) throws IOException {
+        in.position(offset);
+        DataInputStream data = new DataInputStream(new BufferedInputStream(Channels.newInputStream(in), 1 << 16));
+        Start start = null;
+        byte[] moves = new byte[42];
+        int count = 0;
+        int outcome = -1;
+        try {
+            while (outcome < 0) {
+                int tag = data.readUnsignedByte();
+                int game = data.readInt();
+                if (tag == START) {
+                    Start s = readStart(data, game);
+                    if (game == id) start = s;
+                } else if (tag == END) {
+                    int result = data.readUnsignedByte();
+                    if (game == id && start != null) outcome = result;
+                } else if ((tag & 0xF0) == MOVE) {
+                    if (game == id && start != null && count < moves.length) moves[count++] = (byte) (tag & 0x0F);
+                } else {
+                    throw new IOException("Corrupt journal record " + tag);
+                }
+            }
+        } catch (EOFException e) {
+            // the game is still running, the server stopped during it, or it went on in the next segment
+        }
+        if (start == null) return null;
+        return new Game(id, start.startedAt(), start.ranked(), start.player1(), start.player2(),
+                start.icon1(), start.icon2(), Arrays.copyOf(moves, count), outcome);
+    }
+
+    /**
+     * The games that were still running when the journal was last closed or
+     * the server died, as they stood. Each should be resumed or ended.
+     */
+    public List<Game> unfinished() {
+        return unfinished;
+    }
+
+    /** Ids run from 1 up to, not including, this. */
+    public int nextId() {
+        return nextId.get();
+    }
+
+    public String summary() {
+        return String.format("%d records, %d fsyncs, %d KB, %d queued, %d rolls", appended, syncs,
+                position / 1024, queue.size(), rolls);
+    }
+
+    /** Stops accepting records and waits for everything queued to be written and synced. */
+    @Override
+    public void close() {
+        if (lockFile == null) { // opened with read
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (closed) return;
+        closed = true;
+        while (true) {
+            try {
+                queue.put(STOP);
+                break;
+            } catch (InterruptedException ignored) {
+            }
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            System.out.println("Journal writer did not finish, " + queue.size() + " records lost");
+        } else {
+            System.out.println("Journal closed: " + summary());
+        }
+        try {
+            channel.close();
+            lockFile.close(); // releases the lock
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void submit(Entry entry) {
+        if (closed) return;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(entry);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // a lost record would corrupt the game's replay
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        boolean stopping = false;
+        boolean dirty = false;
+        long lastSync = System.nanoTime();
+        while (!stopping) {
+            try {
+                Entry first = dirty
+                        ? queue.poll(SYNC_NANOS - (System.nanoTime() - lastSync), TimeUnit.NANOSECONDS)
+                        : queue.take();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch (InterruptedException e) {
+                continue; // only close() ends the writer
+            }
+            stopping = batch.remove(STOP);
+            if (stopping) {
+                queue.drainTo(batch); // stragglers that raced with close()
+            }
+            try {
+                if (!batch.isEmpty()) {
+                    append(batch);
+                    dirty = true;
+                }
+                if (position >= SEGMENT_BYTES && !stopping) {
+                    roll(); // syncs both segments
+                    dirty = false;
+                    lastSync = System.nanoTime();
+                }
+                if (dirty && (stopping || System.nanoTime() - lastSync >= SYNC_NANOS)) {
+                    channel.force(false);
+                    syncs++;
+                    lastSync = System.nanoTime();
+                    dirty = false;
+                }
+            } catch (IOException e) {
+                System.out.println("Journal write failed: " + e.getMessage() + " (" + batch.size() + " records)");
+            }
+            batch.clear();
+        }
+    }
+
+    private void append(List<Entry> batch) throws IOException {
+        for (Entry entry : batch) {
+            if (buffer.remaining() < 1024) flush();
+            switch (entry) {
+                case Start s -> {
+                    putStart(s);
+                    running.put(s.game(), new Running(s));
+                }
+                case Move m -> {
+                    putMove(m.game(), m.column());
+                    Running r = running.get(m.game());
+                    if (r != null && r.count < r.moves.length) r.moves[r.count++] = (byte) m.column();
+                }
+                case End e -> {
+                    buffer.put(END).putInt(e.game()).put((byte) e.outcome());
+                    running.remove(e.game());
+                }
+            }
+        }
+        flush();
+        appended += batch.size();
+    }
+
+    private void putStart(Start s) {
+        long offset = position + buffer.position();
+        buffer.put(START).putInt(s.game()).putLong(s.startedAt()).put((byte) (s.ranked() ? 1 : 0));
+        putString(s.player1());
+        putString(s.player2());
+        putString(s.icon1());
+        putString(s.icon2());
+        indexStart(s.game(), offset);
+    }
+
+    private void putMove(int game, int column) {
+        buffer.put((byte) (MOVE | column)).putInt(game);
+    }
+
+    /**
+     * Starts a new segment with the running games carried over, archives the
+     * old one and carries on appending to the new one. The new segment is
+     * written and synced under a temporary name first, so a crash at any
+     * point leaves one complete current segment for {@link #open}.
+     */
+    private void roll() throws IOException {
+        Path next = sibling(path, "next");
+        Path archive = sibling(path, Integer.toString(firstId(channel)));
+        channel.force(false);
+        synchronized (this) {
+            starts.clear();
+            FileChannel old = channel;
+            channel = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            position = writeHeader(channel, nextId.get());
+            for (Running r : running.values()) {
+                if (buffer.remaining() < 1024) flush();
+                putStart(r.start);
+                for (int i = 0; i < r.count; i++) {
+                    if (buffer.remaining() < 16) flush();
+                    putMove(r.start.game(), r.moves[i]);
+                }
+            }
+            flush();
+            channel.force(false);
+            channel.close();
+            old.close();
+            Files.move(path, archive, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(next, path, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        rolls++;
+        System.out.println("Journal rolled to a new segment with " + running.size() + " running games, the old one is "
+                + archive.getFileName());
+    }
+
+    // the header of a new segment; returns where its records start
+    private static long writeHeader(FileChannel channel, int firstId) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putInt(firstId).flip();
+        while (header.hasRemaining()) channel.write(header, header.position());
+        return HEADER;
+    }
+
+    // where a segment's records start: after the header, which has no first id in version 1
+    private static long recordsStart(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        }
+        return header.position() == 8 && header.getInt(4) == 1 ? 8 : HEADER;
+    }
+
+    // the lowest game id a segment can hold: from its header, or 1 for a version 1 file
+    private static int firstId(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+        }
+        header.flip();
+        return header.limit() == HEADER && header.getInt(4) != 1 ? header.getInt(8) : 1;
+    }
+
+    private static Path sibling(Path path, String suffix) {
+        return path.resolveSibling(path.getFileName() + "." + suffix);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+    }
+
+    private void putString(String s) {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 255); // names and icon paths are short; keeps a record under 1 KB
+        while (length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--; // cut before the character the limit falls inside, not through it
+        }
+        buffer.putShort((short) length).put(bytes, 0, length);
+    }
+
+    private synchronized void indexStart(int game, long offset) {
+        starts.put(game, offset);
+    }
+
+    private void scan() throws IOException {
+        long size = channel.size();
+        if (size == 0 && lockFile != null) {
+            position = writeHeader(channel, 1);
+            return;
+        }
+        InputStream raw = Channels.newInputStream(channel.position(0));
+        CountingInput counted = new CountingInput(new BufferedInputStream(raw, 1 << 16));
+        DataInputStream data = new DataInputStream(counted);
+        int version;
+        if (size < 8 || data.readInt() != MAGIC || ((version = data.readInt()) != VERSION && version != 1)) {
+            throw new IOException("Not a move journal: " + path);
+        }
+        int firstId = version == 1 ? 1 : data.readInt();
+        long good = counted.count;
+        int maxId = firstId - 1;
+        int games = 0;
+        try {
+            while (true) {
+                int tag = data.readUnsignedByte();
+                int game = data.readInt();
+                if (tag == START) {
+                    Start start = readStart(data, game);
+                    indexStart(game, good);
+                    maxId = Math.max(maxId, game);
+                    games++;
+                    running.put(game, new Running(start));
+                } else if (tag == END) {
+                    data.readUnsignedByte();
+                    running.remove(game);
+                } else if ((tag & 0xF0) == MOVE) {
+                    Running r = running.get(game);
+                    if (r != null && r.count < r.moves.length) r.moves[r.count++] = (byte) (tag & 0x0F);
+                } else {
+                    throw new EOFException(); // garbage from a torn write: treat like one
+                }
+                good = counted.count;
+            }
+        } catch (EOFException e) {
+            if (good < size && lockFile != null) { // read leaves a record the server is still writing alone
+                System.out.println("Journal " + path + ": dropping " + (size - good) + " bytes of a torn record");
+                channel.truncate(good);
+            }
+        }
+        position = good;
+        nextId.set(maxId + 1);
+        List<Game> left = new ArrayList<>(running.size());
+        for (Running r : running.values()) {
+            left.add(r.game());
+        }
+        unfinished = List.copyOf(left);
+        System.out.println("Journal " + path + ": " + games + " games (" + unfinished.size() + " unfinished), "
+                + good / 1024 + " KB");
+    }
+
+    private static Start readStart(DataInputStream data, int game) throws IOException {
+        long startedAt = data.readLong();
+        boolean ranked = data.readUnsignedByte() != 0;
+        return new Start(game, startedAt, ranked, readString(data), readString(data), readString(data), readString(data));
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        int length = data.readUnsignedShort();
+        byte[] bytes = data.readNBytes(length);
+        if (bytes.length < length) throw new EOFException();
+        return length == 0 ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // knows where the last complete record ended, so a torn tail can be cut off exactly
+    private static final class CountingInput extends java.io.FilterInputStream {
+        long count;
+
+        CountingInput(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
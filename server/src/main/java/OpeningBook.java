@@ -0,0 +1,126 @@
+import com.example.common.BitBoard;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only opening book, memory-mapped from the file {@link OpeningBookGenerator}
+ * writes. Opening it maps the file and checks the header, nothing more: pages
+ * are read in by the OS on first lookup and shared by every process on the
+ * host that maps the same file.
+ *
+ * <pre>
+ * file  = magic "C4BK", u32 version, u32 plies, u32 count, entry[count]
+ * entry = u64: key << 15 | score << 3 | move      (big-endian, sorted by key)
+ * </pre>
+ *
+ * A position and its mirror image share one entry under the smaller of the
+ * two keys; lookups mirror the move back. score is from the side to move's
+ * point of view, as {@link BotEngine} scores: beyond ±{@link #PROVEN} it is
+ * a proven win or loss.
+ */
+public final class OpeningBook {
+    static final int MAGIC = 0x4334424B; // "C4BK"
+    static final int VERSION = 1;
+    static final int HEADER = 16;
+    static final int PROVEN = BotEngine.WIN - BitBoard.CELLS - 1;
+
+    /** Returned by {@link #lookup} for a position the book does not hold. */
+    public static final long MISS = -1;
+
+    private final LongBuffer entries;
+    private final int plies;
+
+    private OpeningBook(LongBuffer entries, int plies) {
+        this.entries = entries;
+        this.plies = plies;
+    }
+
+    /** Maps the book, or returns null (and says why) if the file is missing or not a book. */
+    public static OpeningBook open(Path path) {
+        if (!Files.exists(path)) {
+            System.out.println("No opening book at " + path + " (java OpeningBookGenerator writes one)");
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.BIG_ENDIAN);
+            if (map.capacity() < HEADER || map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                System.out.println("Not an opening book: " + path);
+                return null;
+            }
+            int plies = map.getInt(8);
+            int count = map.getInt(12);
+            if (map.capacity() != HEADER + 8L * count) {
+                System.out.println("Truncated opening book: " + path);
+                return null;
+            }
+            LongBuffer entries = map.position(HEADER).slice().order(ByteOrder.BIG_ENDIAN).asLongBuffer();
+            System.out.println("Opening book: " + count + " positions up to ply " + plies);
+            return new OpeningBook(entries, plies);
+        } catch (IOException e) {
+            System.out.println("Could not map opening book " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Positions with fewer stones than this are in the book. */
+    public int plies() {
+        return plies;
+    }
+
+    public int size() {
+        return entries.capacity();
+    }
+
+    /** The book's move for the side to move, or -1 if the position is not in the book. */
+    public int bestMove(BitBoard board) {
+        if (board.moves() >= plies) return -1;
+        long key = board.key();
+        long mirror = BitBoard.mirrorKey(key);
+        long entry = find(Math.min(key, mirror));
+        if (entry == MISS) return -1;
+        int move = move(entry);
+        return mirror < key ? BitBoard.WIDTH - 1 - move : move;
+    }
+
+    /** The packed entry for the position, or {@link #MISS}. */
+    public long lookup(BitBoard board) {
+        if (board.moves() >= plies) return MISS;
+        long key = board.key();
+        return find(Math.min(key, BitBoard.mirrorKey(key)));
+    }
+
+    public static int score(long entry) {
+        return (int) (entry << 49 >> 52); // sign-extend bits 3..14
+    }
+
+    static int move(long entry) {
+        return (int) (entry & 7);
+    }
+
+    static long pack(long key, int score, int move) {
+        return key << 15 | (score & 0xFFFL) << 3 | move;
+    }
+
+    // absolute gets only, so lookups from any number of threads need no locking
+    private long find(long key) {
+        int lo = 0;
+        int hi = entries.capacity() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long entry = entries.get(mid);
+            long k = entry >>> 15;
+            if (k < key) lo = mid + 1;
+            else if (k > key) hi = mid - 1;
+            else return entry;
+        }
+        return MISS;
+    }
+}
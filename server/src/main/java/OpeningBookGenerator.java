@@ -0,0 +1,94 @@
+import com.example.common.BitBoard;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the opening book {@link OpeningBook} maps: every position reachable
+ * in fewer than the given number of plies (mirror images once), searched by
+ * {@link BotEngine} for the given time, with its best move and score.
+ *
+ * <pre>java OpeningBookGenerator [file] [plies] [millis per position] [threads]</pre>
+ *
+ * Positions are searched on all threads against one shared transposition
+ * table, deepest plies first, so shallower positions find the deeper
+ * results already in the table.
+ */
+public class OpeningBookGenerator {
+
+    public static void main(String[] args) throws Exception {
+        Path file = Path.of(args.length > 0 ? args[0] : "opening.book");
+        int plies = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long budget = (args.length > 2 ? Long.parseLong(args[2]) : 20) * 1_000_000L;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        List<BitBoard> positions = new ArrayList<>();
+        collect(new BitBoard(), new BitBoard(), plies, new HashSet<>(), positions);
+        positions.sort((a, b) -> b.moves() - a.moves());
+        System.out.println(positions.size() + " positions below ply " + plies);
+
+        TranspositionTable table = new TranspositionTable(22);
+        ThreadLocal<BotEngine> engines = ThreadLocal.withInitial(() -> new BotEngine(table));
+        long[] entries = new long[positions.size()];
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger proven = new AtomicInteger();
+        long t0 = System.nanoTime();
+        try (ExecutorService exec = Executors.newFixedThreadPool(threads)) {
+            for (int i = 0; i < entries.length; i++) {
+                int index = i;
+                exec.execute(() -> {
+                    BitBoard board = positions.get(index);
+                    BotEngine engine = engines.get();
+                    int move = engine.search(board, System.nanoTime() + budget, BitBoard.CELLS, 1, null);
+                    int score = engine.score();
+                    if (Math.abs(score) > OpeningBook.PROVEN) proven.incrementAndGet();
+                    entries[index] = OpeningBook.pack(board.key(), score, move); // board is already the smaller-keyed image
+                    int n = done.incrementAndGet();
+                    if (n % 10_000 == 0) System.out.println(n + " searched");
+                });
+            }
+        }
+
+        // entries sort as unsigned longs, which is key order: flip the sign bit around a signed sort
+        for (int i = 0; i < entries.length; i++) entries[i] ^= Long.MIN_VALUE;
+        Arrays.sort(entries);
+        for (int i = 0; i < entries.length; i++) entries[i] ^= Long.MIN_VALUE;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(OpeningBook.MAGIC);
+            out.writeInt(OpeningBook.VERSION);
+            out.writeInt(plies);
+            out.writeInt(entries.length);
+            for (long entry : entries) {
+                out.writeLong(entry);
+            }
+        }
+        System.out.printf("Wrote %s: %d positions (%d proven) in %.0f s, %d KB%n", file, entries.length,
+                proven.get(), (System.nanoTime() - t0) / 1e9, Files.size(file) / 1024);
+    }
+
+    // every position below the ply limit that is still being played, as the image the book keys it by;
+    // mirrored tracks the left-right mirror image of board move for move
+    private static void collect(BitBoard board, BitBoard mirrored, int plies, Set<Long> seen, List<BitBoard> out) {
+        if (board.moves() >= plies || !seen.add(Math.min(board.key(), mirrored.key()))) return;
+        out.add(new BitBoard(mirrored.key() < board.key() ? mirrored : board));
+        for (int col = 0; col < BitBoard.WIDTH; col++) {
+            if (!board.canPlay(col) || board.isWinningMove(col)) continue; // a won position needs no book move
+            board.play(col);
+            mirrored.play(BitBoard.WIDTH - 1 - col);
+            collect(board, mirrored, plies, seen, out);
+            mirrored.undo(BitBoard.WIDTH - 1 - col);
+            board.undo(col);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+import java.io.IOException;
+
+/**
+ * A player's link back to their client. Both transports queue the frame and
+ * return; a writer thread (blocking) or the event loop (selector) sends it,
+ * so ClientHandler does not need to know which one it is talking through
+ * and never waits on the player's network.
+ */
+public interface PlayerConnection {
+    /** Queues a frame. Throws if the connection is closed or was dropped for not keeping up. */
+    void write(byte[] frame) throws IOException;
+
+    /** False while the peer is behind on reading (see {@link Backlog}): skip what can be skipped. */
+    default boolean writable() {
+        return true;
+    }
+
+    void close();
+}
@@ -0,0 +1,158 @@
+import com.example.common.LatencyHistogram;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Ranked matchmaking. Waiting players are kept in a TreeMap keyed by rating,
+ * so a new arrival finds its closest opponent with one floor and one ceiling
+ * lookup. Two players are matched once their rating gap fits inside the
+ * longer waiter's window, which starts narrow and widens every second they
+ * wait. Players whose window has widened are paired by a once-a-second sweep
+ * over neighbours in rating order, which takes the lock for a slice of the
+ * queue at a time so arrivals and cancels are never stuck behind all of it.
+ * Each rating's bucket is a LinkedHashSet, so cancelling is O(1) however many
+ * players share a rating.
+ */
+public class RankedMatchmaker {
+    static final int BASE_WINDOW = 50;
+    static final int WIDEN_PER_SECOND = 25;
+    static final int MAX_WINDOW = 400;
+    // tickets the sweep looks at per hold of the lock
+    static final int SWEEP_SLICE = 256;
+
+    private record Ticket(Server.ClientHandler player, int rating, long enqueuedAt) {}
+
+    private final TreeMap<Integer, LinkedHashSet<Ticket>> byRating = new TreeMap<>();
+    private final Map<Server.ClientHandler, Ticket> tickets = new HashMap<>();
+    private final BiConsumer<Server.ClientHandler, Server.ClientHandler> startGame;
+    // recorded by whichever connection thread or selector loop makes the pair
+    private final LatencyHistogram queueTime = new LatencyHistogram(Metrics.STRIPES);
+
+    public RankedMatchmaker(BiConsumer<Server.ClientHandler, Server.ClientHandler> startGame) {
+        this.startGame = startGame;
+    }
+
+    public void enqueue(Server.ClientHandler player, int rating) {
+        Ticket opponent;
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (tickets.containsKey(player)) return;
+            Ticket mine = new Ticket(player, rating, now);
+            opponent = closest(rating);
+            if (opponent == null || !acceptable(mine, opponent, now)) {
+                add(mine);
+                System.out.println(player.getPlayerName() + " (" + rating + ") wants to play ranked!");
+                return;
+            }
+            remove(opponent);
+        }
+        queueTime.record(now - opponent.enqueuedAt());
+        queueTime.record(0);
+        startGame.accept(opponent.player(), player);
+    }
+
+    public synchronized void cancel(Server.ClientHandler player) {
+        Ticket t = tickets.get(player);
+        if (t != null) {
+            remove(t);
+        }
+    }
+
+    public synchronized int size() {
+        return tickets.size();
+    }
+
+    /**
+     * Pairs neighbours in rating order whose gap now fits their widened
+     * windows. Walks the queue a slice at a time, picking up after the last
+     * rating it finished; a neighbour carried over from the previous slice
+     * that was paired or cancelled in between is forgotten.
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        Ticket prev = null;
+        Integer after = null;
+        boolean done = false;
+        while (!done) {
+            List<Ticket[]> pairs = new ArrayList<>();
+            synchronized (this) {
+                if (prev != null && tickets.get(prev.player()) != prev) {
+                    prev = null;
+                }
+                SortedMap<Integer, LinkedHashSet<Ticket>> rest = after == null ? byRating : byRating.tailMap(after, false);
+                int seen = 0;
+                done = true;
+                for (Map.Entry<Integer, LinkedHashSet<Ticket>> bucket : rest.entrySet()) {
+                    for (Ticket t : bucket.getValue()) {
+                        seen++;
+                        if (!t.player().isConnected()) continue;
+                        if (prev != null && acceptable(prev, t, now)) {
+                            pairs.add(new Ticket[]{prev, t});
+                            prev = null;
+                        } else {
+                            prev = t;
+                        }
+                    }
+                    after = bucket.getKey();
+                    if (seen >= SWEEP_SLICE) {
+                        done = false;
+                        break;
+                    }
+                }
+                for (Ticket[] pair : pairs) {
+                    remove(pair[0]);
+                    remove(pair[1]);
+                }
+            }
+            for (Ticket[] pair : pairs) {
+                queueTime.record(now - pair[0].enqueuedAt());
+                queueTime.record(now - pair[1].enqueuedAt());
+                startGame.accept(pair[0].player(), pair[1].player());
+            }
+        }
+    }
+
+    public LatencyHistogram queueTime() {
+        return queueTime;
+    }
+
+    static int window(Ticket t, long now) {
+        long waitedSeconds = (now - t.enqueuedAt()) / 1_000_000_000L;
+        return (int) Math.min(MAX_WINDOW, BASE_WINDOW + WIDEN_PER_SECOND * waitedSeconds);
+    }
+
+    private static boolean acceptable(Ticket a, Ticket b, long now) {
+        return Math.abs(a.rating() - b.rating()) <= Math.max(window(a, now), window(b, now));
+    }
+
+    // nearest connected waiter by rating; disconnected ones met on the way are dropped
+    private Ticket closest(int rating) {
+        while (true) {
+            Map.Entry<Integer, LinkedHashSet<Ticket>> lo = byRating.floorEntry(rating);
+            Map.Entry<Integer, LinkedHashSet<Ticket>> hi = byRating.ceilingEntry(rating);
+            Map.Entry<Integer, LinkedHashSet<Ticket>> best;
+            if (lo == null) best = hi;
+            else if (hi == null) best = lo;
+            else best = rating - lo.getKey() <= hi.getKey() - rating ? lo : hi;
+            if (best == null) return null;
+            Ticket t = best.getValue().iterator().next();
+            if (t.player().isConnected()) return t;
+            remove(t);
+        }
+    }
+
+    private void add(Ticket t) {
+        tickets.put(t.player(), t);
+        byRating.computeIfAbsent(t.rating(), r -> new LinkedHashSet<>()).add(t);
+    }
+
+    private void remove(Ticket t) {
+        tickets.remove(t.player());
+        LinkedHashSet<Ticket> bucket = byRating.get(t.rating());
+        bucket.remove(t);
+        if (bucket.isEmpty()) {
+            byRating.remove(t.rating());
+        }
+    }
+}
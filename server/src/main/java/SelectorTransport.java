@@ -0,0 +1,322 @@
+import com.example.common.LoginRequest;
+import com.example.common.Protocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking front end. One acceptor thread hands sockets to a few selector
+ * loops; each loop reads frames for all of its players and routes them through
+ * the same ClientHandler logic the blocking transport uses. Logins are moved to
+ * a small pool so a SQLite lookup never stalls a loop.
+ *
+ * <p>Outgoing frames are queued per connection and flushed once per loop
+ * pass with a gathering write, so everything a pass produced for one player
+ * goes out in one send. Each queue is bounded by its {@link Backlog}.
+ *
+ * <p>A connection that has not logged in within
+ * {@link Server#HANDSHAKE_TIMEOUT_MS} is closed, as the stream transports
+ * do, so sockets that never speak cannot pile up.
+ */
+public class SelectorTransport {
+    private final Server server;
+    private final EventLoop[] loops;
+    private final ExecutorService logins = Executors.newFixedThreadPool(2);
+    private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "login-deadlines");
+        t.setDaemon(true);
+        return t;
+    });
+    private int next;
+
+    public SelectorTransport(Server server, int loopCount) throws IOException {
+        this.server = server;
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop();
+        }
+    }
+
+    public void start(int port) throws IOException {
+        ServerSocketChannel acceptor = ServerSocketChannel.open();
+        acceptor.bind(new InetSocketAddress(port));
+        for (int i = 0; i < loops.length; i++) {
+            new Thread(loops[i], "selector-" + i).start();
+        }
+        new Thread(() -> acceptLoop(acceptor), "selector-accept").start();
+    }
+
+    private void acceptLoop(ServerSocketChannel acceptor) {
+        try {
+            while (true) {
+                SocketChannel ch = acceptor.accept();
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+                loops[next++ % loops.length].register(ch);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private Thread thread;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel ch) {
+            execute(() -> {
+                try {
+                    SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+                    ChannelConnection conn = new ChannelConnection(this, ch, key);
+                    key.attach(conn);
+                    deadlines.schedule(() -> execute(conn::loginDeadline), Server.HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (ClosedChannelException e) {
+                    System.out.println("Channel closed before registration.");
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        ChannelConnection conn = (ChannelConnection) key.attachment();
+                        if (!key.isValid()) continue;
+                        if (key.isReadable()) conn.onReadable();
+                        if (key.isValid() && key.isWritable()) conn.flush();
+                    }
+                    while ((task = tasks.poll()) != null) { // the flushes the reads above queued
+                        task.run();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private class ChannelConnection implements PlayerConnection {
+        private final EventLoop loop;
+        private final SocketChannel ch;
+        private final SelectionKey key;
+        private final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+        private final Backlog backlog = new Backlog();
+        private final AtomicBoolean flushQueued = new AtomicBoolean();
+        private final ByteBuffer[] gather = new ByteBuffer[64];
+        private ByteBuffer readBuf = ByteBuffer.allocate(1024);
+        private volatile Server.ClientHandler handler;
+        // a login is with the pool; frames after it wait in readBuf until it is answered
+        private boolean loggingIn;
+        private volatile boolean closing;
+        private volatile boolean closed;
+
+        ChannelConnection(EventLoop loop, SocketChannel ch, SelectionKey key) {
+            this.loop = loop;
+            this.ch = ch;
+            this.key = key;
+        }
+
+        // one flush per loop pass however many frames are queued before it runs
+        @Override
+        public void write(byte[] frame) throws IOException {
+            if (closing || closed) throw new IOException("Connection closed");
+            if (!backlog.queued(frame.length)) {
+                System.out.println("Dropping " + name() + ": " + backlog.bytes() + " bytes unread for too long");
+                loop.execute(this::shutdown);
+                throw new IOException("Peer is not reading");
+            }
+            pending.add(ByteBuffer.wrap(frame));
+            if (flushQueued.compareAndSet(false, true)) {
+                loop.execute(this::flush);
+            }
+        }
+
+        @Override
+        public boolean writable() {
+            return !closed && !backlog.congested();
+        }
+
+        // Lets the queued reply go out before the socket is shut.
+        @Override
+        public void close() {
+            loop.execute(() -> {
+                closing = true;
+                flush();
+            });
+        }
+
+        void flush() {
+            flushQueued.set(false);
+            if (closed) return;
+            try {
+                while (!pending.isEmpty()) {
+                    int n = 0;
+                    for (ByteBuffer buf : pending) {
+                        gather[n++] = buf;
+                        if (n == gather.length) break;
+                    }
+                    long written = ch.write(gather, 0, n);
+                    backlog.sent(written);
+                    Metrics.BYTES_OUT.add(written);
+                    boolean full = gather[n - 1].hasRemaining();
+                    Arrays.fill(gather, 0, n, null);
+                    ByteBuffer head;
+                    while ((head = pending.peek()) != null && !head.hasRemaining()) {
+                        pending.poll();
+                    }
+                    if (full) { // the socket buffer took what it could; wait for OP_WRITE
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (closing) shutdown();
+            } catch (IOException e) {
+                shutdown();
+            }
+        }
+
+        void onReadable() {
+            try {
+                int read = ch.read(readBuf);
+                if (read < 0) {
+                    shutdown();
+                    return;
+                }
+                Metrics.BYTES_IN.add(read);
+                decode();
+            } catch (IOException e) {
+                System.out.println("Client " + name() + " disconnected unexpectedly.");
+                shutdown();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                shutdown();
+            }
+        }
+
+        // dispatches every whole frame in readBuf, stopping after a login
+        private void decode() throws IOException {
+            readBuf.flip();
+            while (!loggingIn && readBuf.remaining() >= Protocol.HEADER) {
+                int len = readBuf.getShort(readBuf.position()) & 0xFFFF;
+                if (readBuf.remaining() < Protocol.HEADER + len) {
+                    if (readBuf.capacity() < Protocol.HEADER + len) {
+                        readBuf = ByteBuffer.allocate(Protocol.HEADER + len).put(readBuf);
+                        readBuf.flip();
+                    }
+                    break;
+                }
+                int start = readBuf.position() + Protocol.HEADER;
+                readBuf.position(start + len);
+                dispatch(Protocol.decode(readBuf.array(), start, len));
+                if (closed) return;
+            }
+            readBuf.compact();
+        }
+
+        private void dispatch(Object obj) throws IOException {
+            if (handler != null) {
+                handler.onMessage(obj);
+                return;
+            }
+            if (!(obj instanceof LoginRequest request)) {
+                throw new IOException("Expected a login, got " + obj);
+            }
+            // stop reading until the login pool has answered; anything sent after the login waits
+            loggingIn = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            logins.execute(() -> login(request));
+        }
+
+        private void login(LoginRequest request) {
+            try {
+                Server.ClientHandler h = server.login(this, request);
+                if (h != null) {
+                    handler = h;
+                    loop.execute(this::loggedIn);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                close();
+            }
+        }
+
+        // on the loop: reads resume, starting with what arrived behind the login
+        private void loggedIn() {
+            loggingIn = false;
+            if (closed || !key.isValid()) return;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            try {
+                decode();
+            } catch (IOException e) {
+                System.out.println("Client " + name() + " disconnected unexpectedly.");
+                shutdown();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                shutdown();
+            }
+        }
+
+        // on the loop: a connection that has not logged in yet is dropped; one with its login in hand is left to finish
+        void loginDeadline() {
+            if (handler != null || loggingIn || closed) return;
+            System.out.println("Login handshake from " + name() + " timed out");
+            shutdown();
+        }
+
+        private String name() {
+            return handler != null ? handler.getPlayerName() : ch.socket().getRemoteSocketAddress().toString();
+        }
+
+        private void shutdown() {
+            if (closed) return;
+            closed = true;
+            key.cancel();
+            try {
+                ch.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (handler != null) {
+                handler.disconnected();
+            }
+        }
+    }
+}
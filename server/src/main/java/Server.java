@@ -1,236 +1,756 @@
 
+import com.example.common.*;
+
 import java.io.*;
 import java.net.*;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Server {
     private static final int PORT = 5555;
+    static final int HANDSHAKE_TIMEOUT_MS = 10_000;
+    // a casual player left alone this long is offered a game against the bot
+    private static final long BOT_AFTER_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("connect4.botAfterSeconds", 15));
+    private static final String BOOK_FILE = System.getProperty("connect4.book", "opening.book");
+    // by default one journal per port, so servers started in the same directory keep their games apart
+    private static final String JOURNAL_FILE = System.getProperty("connect4.journal");
+    // a player who drops out of a game has this long to log back in before it counts as a surrender
+    private static final long RECONNECT_SECONDS = Long.getLong("connect4.reconnectSeconds", 30);
+    // "standalone" (the default), "router" (logins, matchmaking and the lobby, with the games
+    // played on shards) or "shard" (plays the games a router hands it)
+    private static final String ROLE = System.getProperty("connect4.role", "standalone");
+    private static final boolean ROUTER = ROLE.equals("router");
+    private static final boolean SHARD = ROLE.equals("shard");
+    // a shard's address as players reach it, and where its router listens for heartbeats
+    private static final String SHARD_HOST = System.getProperty("connect4.shardHost", "localhost");
+    private static final String ROUTER_ADDRESS = System.getProperty("connect4.router", "localhost:" + PORT);
+    // the Prometheus endpoint; by default the game port + 1000, 0 turns it off
+    private static final int METRICS_PORT = Integer.getInteger("connect4.metricsPort", -1);
+
+    private final String mode;
+    private final int port;
 
+    public Server(String mode, int port) {
+        this.mode = mode;
+        this.port = port;
+    }
 
     private static Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
-    private static ArrayList<ClientHandler> waitingPlayers = new ArrayList<>();
     private static ArrayList<GameSession> currentGames = new ArrayList<>();
 
-    public static synchronized void addToWaitingList(ClientHandler handler) {
-        if (!waitingPlayers.contains(handler)) {
-            waitingPlayers.add(handler);
-            System.out.println(handler.playerName + " wants to play!");
+    private final Matchmaker matchmaker = new Matchmaker((p1, p2) -> pair(p1, p2, false));
+    private final RankedMatchmaker rankedMatchmaker = new RankedMatchmaker((p1, p2) -> pair(p1, p2, true));
+    private final WriteBehind writeBehind = new WriteBehind();
+    private final FriendService friends = new FriendService(clients, (inviter, friend) -> {
+        if (!startGame(inviter, friend, false)) return false;
+        // seated now, so a queue that pairs them before this goes through is turned away by startGame
+        matchmaker.cancel(inviter);
+        rankedMatchmaker.cancel(inviter);
+        matchmaker.cancel(friend);
+        rankedMatchmaker.cancel(friend);
+        return true;
+    });
+    private final ChatService chat = new ChatService(friends);
+    // mapped once and shared by every bot and session; null if there is no book file
+    private volatile OpeningBook book;
+    // every game's moves, for replays; null if the file could not be opened
+    private volatile MoveJournal journal;
+    // games waiting for a dropped player to log back in, by that player's name
+    private final Map<String, GameSession> suspended = new ConcurrentHashMap<>();
+    // signs tickets and heartbeats between a router and its shards
+    private byte[] shardKey;
+    private ShardDirectory shards;
+    // router: the shard each player's last game went to, so a player who drops out can be sent back
+    private final Map<String, Placement> placements = new ConcurrentHashMap<>();
+    // router: the games on shards that have not ended, by id; their players count as in a game here
+    private final Map<Long, ShardGame> shardGames = new ConcurrentHashMap<>();
+    // shard: tells the router which handed-off games were seated and ended
+    private ShardDirectory.Heartbeat heartbeat;
+    // shard: the games routers handed off, by the router's id; ended ones stay until their tickets expire
+    private final Map<Long, GameSession> handedOff = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "timers");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private record Placement(ShardDirectory.Shard shard, Ticket ticket) {}
+
+    // router: a game handed to a shard, until the shard reports it ended
+    private static final class ShardGame {
+        final ShardDirectory.Shard shard;
+        final String player1;
+        final String player2;
+        final long handedAt = System.nanoTime();
+        volatile boolean seated;
+
+        ShardGame(ShardDirectory.Shard shard, String player1, String player2) {
+            this.shard = shard;
+            this.player1 = player1;
+            this.player2 = player2;
+        }
+
+        // a shard that went down since may have lost the game, and will not report its end
+        boolean live() {
+            return shard.upSince(handedAt);
         }
     }
 
-    private GameSession findSession(ClientHandler player) {
-        synchronized (currentGames) {
-            for (GameSession session : currentGames) {
-                if (session.contains(player)) {
-                    return session;
+    // held while startGame checks that both players are free and seats them, so two queues,
+    // or a queue and an invite, pairing the same player at once cannot seat them twice
+    private final Object seating = new Object();
+
+    /** Starts a game, or returns false if either player is already in one or has left. */
+    private boolean startGame(ClientHandler p1, ClientHandler p2, boolean ranked) {
+        synchronized (seating) {
+            if (p1 == p2 || p1.inGame() || p2.inGame() || !p1.isConnected() || !p2.isConnected()) {
+                System.out.println("Not starting a game between " + p1.playerName + " and " + p2.playerName
+                        + ", one of them is busy or gone");
+                return false;
+            }
+            if (shards != null && !BotConnection.NAME.equals(p2.playerName)) { // bot games cost no network, they stay here
+                ShardDirectory.Shard shard = shards.pick();
+                if (shard != null) {
+                    handOff(shard, p1, p2, ranked);
+                    return true;
                 }
+                System.out.println("No shard is up, hosting the game here");
             }
-            return null;
+            System.out.println("Starting a" + (ranked ? " ranked" : "") + " game between " + p1.playerName + " and " + p2.playerName);
+
+            String Icon1 = p1.planetPath;
+            String Icon2 = p2.planetPath;
+
+            GameSession game = new GameSession(p1, p2, Icon1, Icon2, ranked);
+            synchronized (currentGames) {
+                currentGames.add(game);
+            }
+            System.out.println("Game started!");
+            p1.session = game;
+            p2.session = game;
+            sendOpponent(p1, new GameEvent(GameEvent.Type.START, p2.playerName, Icon2, 1));
+            sendOpponent(p2, new GameEvent(GameEvent.Type.START, p1.playerName, Icon1, 2));
+            return true;
         }
     }
 
-    public void manageGames() {
-        while (true) {
-            try {
-                Thread.sleep(100); // Small delay to avoid busy waiting
-                synchronized (waitingPlayers) {
-                    while (waitingPlayers.size() >= 2) {
-                        ClientHandler p1 = waitingPlayers.remove(0);
-                        ClientHandler p2 = waitingPlayers.remove(0);
+    // a pair a queue made; if one of them was seated elsewhere meanwhile, the other goes back in line
+    private void pair(ClientHandler p1, ClientHandler p2, boolean ranked) {
+        if (startGame(p1, p2, ranked)) return;
+        for (ClientHandler player : new ClientHandler[] {p1, p2}) {
+            if (!player.inGame() && player.isConnected()) {
+                if (ranked) {
+                    rankedMatchmaker.enqueue(player, player.elo);
+                } else {
+                    matchmaker.enqueue(player);
+                }
+            }
+        }
+    }
 
-                        System.out.println("Starting a game between " + p1.playerName + " and " + p2.playerName);
+    /**
+     * Router: sends both players to the shard with a ticket each. The game
+     * only ever exists on the shard; the players stay logged in here.
+     */
+    private void handOff(ShardDirectory.Shard shard, ClientHandler p1, ClientHandler p2, boolean ranked) {
+        long id = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+        System.out.println("Handing the game between " + p1.playerName + " and " + p2.playerName
+                + " to shard " + shard.host + ":" + shard.port);
+        ShardGame game = new ShardGame(shard, p1.playerName, p2.playerName);
+        shardGames.put(id, game);
+        for (ClientHandler player : new ClientHandler[] {p1, p2}) {
+            Ticket ticket = Ticket.issue(id, player.playerName, p1.playerName, p2.playerName,
+                    p1.planetPath, p2.planetPath, ranked, false);
+            placements.put(player.playerName, new Placement(shard, ticket));
+            sendOpponent(player, new Redirect(shard.host, shard.port, ticket.sign(shardKey)));
+        }
+        // a game nobody arrived for by the time the tickets expired never starts
+        timers.schedule(() -> {
+            if (!game.seated) shardGameEnded(id);
+        }, Ticket.TTL_MILLIS + 4 * ShardDirectory.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
 
-                        String Icon1 = p1.planetPath;
-                        String Icon2 = p2.planetPath;
+    // router: the shard has started the game
+    private void shardGameSeated(long id) {
+        ShardGame game = shardGames.get(id);
+        if (game != null) game.seated = true;
+    }
 
-                        GameSession game = new GameSession(p1, p2, Icon1, Icon2);
-                        currentGames.add(game);
-                        System.out.println("Game started!");
-                        p1.setOpponent(p2);
-                        p2.setOpponent(p1);
-                        p1.send(new GameEvent(GameEvent.Type.START, p2.playerName, Icon2, 1));
-                        p2.send(new GameEvent(GameEvent.Type.START, p1.playerName, Icon1, 2));
+    /**
+     * Router: the game on the shard is over, so its players are free to play
+     * again. The shard stored their new ratings, so they are read back before
+     * a held ranked Play queues on the old ones. The shard commits a result
+     * as the game ends and reports it with its next heartbeat, so the rating
+     * is normally in the table by then.
+     */
+    private void shardGameEnded(long id) {
+        ShardGame game = shardGames.remove(id);
+        if (game == null) return; // a repeated report, or already given up on
+        for (String name : new String[] {game.player1, game.player2}) {
+            placements.computeIfPresent(name, (k, placed) -> placed.ticket().game() == id ? null : placed);
+            int elo = Database.reloadElo(name); // also for a player who has logged out, so the cache is current
+            ClientHandler player = clients.get(name);
+            if (player != null) {
+                player.elo = elo;
+                player.shardGameOver();
+            }
+        }
+    }
 
-                    }
-                }
-            } catch (IOException | InterruptedException e) {
-                e.printStackTrace();
+    /**
+     * Shard: the game a ticket seats its player in, or null if it is over.
+     * Whichever player arrives first starts the game, and the other has the
+     * reconnect window to follow. A rejoin ticket only finds a game this
+     * shard is holding for the player.
+     */
+    private GameSession seat(Ticket t) {
+        GameSession game = t.rejoin() ? suspended.get(t.player()) : handedOff.computeIfAbsent(t.game(), id -> {
+            GameSession g = new GameSession(away(t.player1(), t.icon1()), away(t.player2(), t.icon2()),
+                    t.icon1(), t.icon2(), t.ranked());
+            g.handoff = id;
+            heartbeat.seated(id);
+            synchronized (currentGames) {
+                currentGames.add(g);
             }
+            g.waitFor(g.player1);
+            g.waitFor(g.player2);
+            return g;
+        });
+        return game == null || game.isOver() ? null : game;
+    }
+
+    /**
+     * Checks the credentials against the database and registers the player.
+     * A shard checks the router's ticket, carried as the password, instead.
+     * Shared by both transports; on failure the reply is written and the
+     * connection closed, and null is returned.
+     */
+    ClientHandler login(PlayerConnection conn, LoginRequest request) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return checkLogin(conn, request);
+        } finally {
+            Metrics.LOGIN.record(System.nanoTime() - start);
         }
     }
 
+    private ClientHandler checkLogin(PlayerConnection conn, LoginRequest request) throws IOException {
+        String username = request.username();
+        String password = request.password();
+        // check if name is already connected to Server; a shard only takes tickets, and a valid
+        // ticket replaces the player's older connection instead (below)
+        if (!SHARD && clients.containsKey(username)) {
+            System.out.println("Client " + username + " is already connected");
+            conn.write(Protocol.encode(new LoginResult("Username already in use")));
+            conn.close();
+            return null;
+        }
+        //check the database and interact add/log-in client
+        String result;
+        Ticket ticket = null;
+        GameSession seat = null;
+        if (SHARD) {
+            ticket = Ticket.verify(password, shardKey);
+            if (ticket == null || !ticket.player().equals(username)) {
+                result = "Invalid or expired ticket";
+            } else {
+                // the ticket is newer than any connection the player still has here, such as
+                // the last game's, which the shard may not have seen close yet
+                ClientHandler stale = clients.get(username);
+                if (stale != null) {
+                    stale.disconnected();
+                    clients.remove(username, stale); // in case its reader thread got to disconnected() first and is still on its way
+                }
+                seat = seat(ticket);
+                result = seat != null ? LoginResult.SUCCESS : "That game is over";
+            }
+        } else if (!request.signUp()) {
+            result = Database.loginUser(username, password);
+            System.out.println(username + " logged in!");
+        } else {
+            result = Database.insertUser(username, password);
+            System.out.println(username + " signed up!");
+        }
+        ClientHandler handler = new ClientHandler(conn, username);
+        if (result.equals(LoginResult.SUCCESS)) {
+            // a shard's cached rating may predate a game the player has since finished on another shard
+            handler.elo = SHARD ? Database.reloadElo(username) : Database.getElo(username);
+        }
+        if (result.equals(LoginResult.SUCCESS) && clients.putIfAbsent(username, handler) != null) {
+            result = "Username already in use";
+        }
+        conn.write(Protocol.encode(new LoginResult(result)));
+        if (!result.equals(LoginResult.SUCCESS)) {
+            conn.close();
+            return null;
+        }
+        if (seat != null) {
+            suspended.remove(username, seat);
+            if (!seat.reattach(handler, ticket.rejoin())) { // it ended while they were logging in
+                handler.disconnected();
+                return null;
+            }
+            System.out.println(username + (ticket.rejoin() ? " is back in their game" : " joined their game"));
+            return handler;
+        }
+        GameSession game = suspended.remove(username);
+        if (game != null && game.reattach(handler, true)) {
+            System.out.println(username + " is back in their game");
+        }
+        Placement placed = placements.get(username);
+        if (placed != null) { // router: their last game is on a shard, which may still be holding it
+            Ticket t = placed.ticket();
+            Ticket rejoin = Ticket.issue(t.game(), username, t.player1(), t.player2(), t.icon1(), t.icon2(), t.ranked(), true);
+            handler.send(new Redirect(placed.shard().host, placed.shard().port, rejoin.sign(shardKey)));
+        }
+        return handler;
+    }
 
-    public void addNewUsers(ServerSocket serverSocket) {
+    /**
+     * Only accepts; the handshake and the player's session run on the
+     * connection's own thread, so a slow login cannot hold up the next one.
+     */
+    public void addNewUsers(ServerSocket serverSocket, Thread.Builder connectionThreads) {
         try {
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-
-                ObjectOutputStream out = new ObjectOutputStream(clientSocket.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream());
-                String status = (String) in.readObject();
-                String username = (String) in.readObject();
-                String password = (String) in.readObject();
-
-                // Now create the ClientHandler with the username
-                ClientHandler handler = new ClientHandler(clientSocket, 0, username, out, in);
-
-                if (clients.containsKey(username)) { //check if name is already connected to Server
-                    System.out.println("Client " + username + " is already connected");
-                    out.writeObject("Username already in use");
-                    out.flush();
-                    clientSocket.close();
-                } else {//check the database and interact add/log-in client
-                    String result;
-                    if(status.equalsIgnoreCase("Login")) {
-                        result = Database.loginUser(username, password);
-                        System.out.println(username + " logged in!");
-                    }
-                    else {
-                        result = Database.insertUser(username, password);
-                        System.out.println(username + " signed up!");
-                    }
-                    if(result.equals("SUCCESS")){
-                        out.writeObject(result);
-                        out.flush();
-                        clients.put(username, handler);
-                        new Thread(handler).start();
-                    }
-                    else{
-                        out.writeObject(result);
-                        out.flush();
-                    }
-                }
-            }
-        } catch (IOException | ClassNotFoundException e) {
+                connectionThreads.start(() -> serve(clientSocket));
+            }
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private void serve(Socket clientSocket) {
+        ClientHandler handler;
+        try {
+            clientSocket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            StreamConnection conn = new StreamConnection(clientSocket);
+            handler = login(conn, (LoginRequest) conn.read());
+            if (handler == null) return;
+            clientSocket.setSoTimeout(0);
+        } catch (IOException | ClassCastException e) {
+            System.out.println("Login handshake from " + clientSocket.getRemoteSocketAddress() + " failed: " + e);
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+        handler.run();
+    }
+
     public void start() {
 
         try {
             Database.connect();
-            ServerSocket serverSocket = new ServerSocket(PORT);
-            System.out.println("Server started...");
+            if (ROUTER || SHARD) {
+                shardKey = Ticket.key();
+            }
+            if (ROUTER) {
+                shards = new ShardDirectory(shardKey, this::shardGameSeated, this::shardGameEnded);
+                shards.listen(port);
+            } else if (SHARD) {
+                heartbeat = ShardDirectory.heartbeat(ROUTER_ADDRESS, SHARD_HOST, port, this::gameCount, clients::size, shardKey, timers);
+            }
+            book = OpeningBook.open(Path.of(BOOK_FILE));
+            String journalFile = JOURNAL_FILE != null ? JOURNAL_FILE : "games-" + port + ".journal";
+            try {
+                journal = MoveJournal.open(Path.of(journalFile));
+                recoverGames();
+            } catch (IOException e) {
+                System.out.println("Could not open move journal " + journalFile + ", games will not be journaled: " + e.getMessage());
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                writeBehind.close(); // results still queued go in before the pool closes
+                if (journal != null) journal.close();
+                Database.close();
+            }, "db-close"));
+            switch (mode) {
+                case "nio" -> new SelectorTransport(this, Runtime.getRuntime().availableProcessors()).start(port);
+                case "virtual" -> startAcceptor(Thread.ofVirtual().name("player-", 0));
+                default -> startAcceptor(Thread.ofPlatform().name("player-", 0));
+            }
+            int metricsPort = METRICS_PORT < 0 ? port + 1000 : METRICS_PORT;
+            if (metricsPort > 0) {
+                registerMetrics();
+                try {
+                    Metrics.serve(metricsPort);
+                } catch (IOException e) { // the endpoint is a side show, the games go on without it
+                    System.out.println("Could not serve metrics on port " + metricsPort + ", carrying on without them: " + e);
+                }
+            }
+            System.out.println("Server started (" + mode + (ROUTER || SHARD ? ", " + ROLE : "") + ")...");
             System.out.println("Waiting for clients...");
-            Thread newUsersThread = new Thread(() -> addNewUsers(serverSocket));
-            Thread mangageGamesThread = new Thread(this::manageGames);
-            newUsersThread.start();
-            mangageGamesThread.start();
+            timers.scheduleAtFixedRate(() -> {
+                if (matchmaker.queueTime().count() > 0) {
+                    System.out.println("Queue wait " + matchmaker.queueTime().summary());
+                }
+                if (rankedMatchmaker.queueTime().count() > 0) {
+                    System.out.println("Ranked queue wait " + rankedMatchmaker.queueTime().summary());
+                }
+                System.out.println("User cache " + Database.userCache().summary());
+                if (journal != null) {
+                    System.out.println("Journal " + journal.summary());
+                }
+                System.out.println("Chat " + chat.summary());
+                if (shards != null) {
+                    System.out.println("Shards " + shards.summary());
+                    // games on a shard that went down meanwhile will not be reported ended
+                    shardGames.forEach((id, game) -> {
+                        if (!game.live()) shardGameEnded(id);
+                    });
+                }
+            }, 1, 1, TimeUnit.MINUTES);
+            timers.scheduleWithFixedDelay(chat::flush, ChatService.TICK_MILLIS, ChatService.TICK_MILLIS, TimeUnit.MILLISECONDS);
+            timers.scheduleWithFixedDelay(rankedMatchmaker::sweep, 1, 1, TimeUnit.SECONDS);
+            timers.scheduleWithFixedDelay(this::matchWithBot, 1, 1, TimeUnit.SECONDS);
         } catch (IOException e) {
             e.printStackTrace();
         }
 
     }
 
-    private void sendOpponent(ClientHandler opponent, Object msg) throws IOException {
-        if (opponent != null) {
+    /**
+     * Puts the games the last run left unfinished back on the board, rebuilt
+     * from the journal, and gives both players the reconnect window to log
+     * in. Bot games cannot be resumed (the bot's side is gone) and are ended.
+     */
+    private void recoverGames() throws IOException {
+        for (MoveJournal.Game g : journal.unfinished()) {
+            if (RECONNECT_SECONDS <= 0 || BotConnection.NAME.equals(g.player1()) || BotConnection.NAME.equals(g.player2())) {
+                journal.end(g.id(), MoveJournal.ABANDONED);
+                continue;
+            }
+            GameSession game = new GameSession(away(g.player1(), g.icon1()), away(g.player2(), g.icon2()), g);
+            synchronized (currentGames) {
+                currentGames.add(game);
+            }
+            game.waitFor(game.player1);
+            game.waitFor(game.player2);
+            System.out.println("Recovered game " + g.id() + " between " + g.player1() + " and " + g.player2()
+                    + " after " + g.moves().length + " moves");
+        }
+    }
+
+    // stands in for a player of a recovered game until they log back in
+    private ClientHandler away(String username, String planetPath) {
+        ClientHandler handler = new ClientHandler(new PlayerConnection() {
+            @Override
+            public void write(byte[] frame) {
+            }
+
+            @Override
+            public void close() {
+            }
+        }, username);
+        handler.disconnected.set(true);
+        handler.planetPath = planetPath;
+        handler.elo = Database.reloadElo(username);
+        return handler;
+    }
+
+    private void registerMetrics() {
+        Metrics.gauge("connect4_players", "Players logged in.", clients::size);
+        Metrics.gauge("connect4_games", "Games being played.", this::gameCount);
+        Metrics.gauge("connect4_games_waiting", "Games held for a player who dropped out.", suspended::size);
+        Metrics.histogram("connect4_queue_wait_seconds", "Time casual players waited for an opponent.", matchmaker.queueTime());
+        Metrics.histogram("connect4_ranked_queue_wait_seconds", "Time ranked players waited for an opponent.", rankedMatchmaker.queueTime());
+    }
+
+    private int gameCount() {
+        synchronized (currentGames) {
+            return currentGames.size();
+        }
+    }
+
+    private void matchWithBot() {
+        ClientHandler lonely = matchmaker.pollWaiting(BOT_AFTER_NANOS);
+        if (lonely != null) {
+            startGame(lonely, newBot(lonely.planetPath), false);
+        }
+    }
+
+    private ClientHandler newBot(String opponentPlanet) {
+        BotConnection conn = new BotConnection(book);
+        ClientHandler bot = new ClientHandler(conn, BotConnection.NAME);
+        conn.attach(bot);
+        bot.setPlanetPath("/planets/mars.png".equals(opponentPlanet) ? "/planets/neptune.png" : "/planets/mars.png");
+        return bot;
+    }
+
+    private void startAcceptor(Thread.Builder connectionThreads) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 1024);
+        Thread newUsersThread = new Thread(() -> addNewUsers(serverSocket, connectionThreads));
+        newUsersThread.start();
+    }
+
+    private void sendOpponent(ClientHandler opponent, Object msg) {
+        if (opponent != null && opponent.isConnected()) {
+            sendFrame(opponent, Protocol.encode(msg));
+        }
+    }
+
+    private void sendFrame(ClientHandler player, byte[] frame) {
+        if (player != null && player.isConnected()) {
             try {
-                opponent.send(msg);
+                player.sendFrame(frame);
             } catch (IOException e) {
-                System.out.println("Opponent " + opponent.playerName + " unreachable.");
+                System.out.println("Opponent " + player.playerName + " unreachable.");
             }
         }
     }
 
 
-    public class ClientHandler extends Thread {
-        private final Socket sock;
-        private final ObjectOutputStream out;
-        private final ObjectInputStream in;
+    public class ClientHandler implements Runnable {
+        private final PlayerConnection conn;
         private final String playerName;
-        private ClientHandler opponent;
+        private volatile GameSession session;
         private String planetPath;
+        private volatile int elo = 1000;
+        private volatile GameSession watching;
+        // router: a PlayRequest that came in before the shard reported the player's last game over
+        private final AtomicReference<PlayRequest> heldPlay = new AtomicReference<>();
+        private final AtomicBoolean disconnected = new AtomicBoolean();
 
-        ClientHandler(Socket sock, int num, String username, ObjectOutputStream out, ObjectInputStream in) throws IOException {
-            this.sock = sock;
+        ClientHandler(PlayerConnection conn, String username) {
+            this.conn = conn;
             this.playerName = username;
-            this.out = out;
-            this.in = in;
+        }
+
+        String getPlayerName() {
+            return playerName;
+        }
+
+        boolean isConnected() {
+            return !disconnected.get();
+        }
+
+        /** In a game here or, on a router, in one handed to a shard that has not reported it over. */
+        boolean inGame() {
+            if (session != null) return true;
+            Placement placed = placements.isEmpty() ? null : placements.get(playerName);
+            ShardGame game = placed != null ? shardGames.get(placed.ticket().game()) : null;
+            return game != null && game.live();
         }
 
         void setPlanetPath(String planetPath) {
             this.planetPath = planetPath;
         }
 
-        void setOpponent(ClientHandler opponent) {
-            this.opponent = opponent;
+        void send(Object o) throws IOException {
+            conn.write(Protocol.encode(o));
         }
 
-        void send(Object o) throws IOException {
-            out.writeObject(o);
-            out.flush();
+        /** Sends a frame that was encoded once for several players. */
+        void sendFrame(byte[] frame) throws IOException {
+            conn.write(frame);
+        }
+
+        /** False while this player is behind on reading what was sent to them. */
+        boolean writable() {
+            return conn.writable();
+        }
+
+        void stopWatching() {
+            GameSession game = watching;
+            if (game != null) {
+                watching = null;
+                game.unwatch(this);
+            }
+        }
+
+        // the game's feed let this spectator go: the game ended or the connection failed
+        void stoppedWatching(Spectators feed) {
+            GameSession game = watching;
+            if (game != null && game.spectators == feed) {
+                watching = null;
+                game.room.leave(this);
+            }
+        }
+
+        /**
+         * Handles one message from this player. Called from the player's own
+         * thread in blocking/virtual mode and from a selector loop in nio mode.
+         */
+        void onMessage(Object obj) throws IOException {
+            if (obj instanceof PlayRequest play) {
+                play(play);
+            } else if (obj instanceof GameEvent ge) {
+                GameSession game = session;
+                if (game == null) return;
+                switch (ge.getType()) {
+                    case MOVE:
+                        game.move(this, ge.getColumn());
+                        break;
+                    case WIN:
+                        // clients may only concede (surrender button, turn timer);
+                        // real wins are detected by the session itself
+                        if (game.getOpponent(this).playerName.equals(ge.getWinningPlayer())) {
+                            game.forfeit(this);
+                        }
+                        break;
+                }
+            } else if (obj instanceof ChatMessage cm) {
+                GameSession game = session;
+                chat.post(this, cm, game != null ? game.room : null);
+            } else if (obj instanceof ChatChannel channel) {
+                chat.handle(this, channel);
+            } else if (obj instanceof FriendRequest fr) {
+                friends.handle(this, fr);
+            } else if (obj instanceof Invite invite) {
+                friends.handle(this, invite);
+            } else if (obj instanceof Watch watch) {
+                stopWatching();
+                if (watch.op() == Watch.Op.STOP) return;
+                ClientHandler player = clients.get(watch.player());
+                GameSession game = player != null ? player.session : null;
+                if (session != null || game == null || !game.watch(this)) {
+                    send(new Watch(Watch.Op.STOP, watch.player()));
+                }
+            } else if (obj instanceof Hint) {
+                GameSession game = session;
+                if (game != null) {
+                    game.hint(this);
+                }
+            }
+        }
+
+        /**
+         * Queues the player. On a router, a player whose game on a shard has
+         * not been reported over yet (the shard reports with its next
+         * heartbeat) has the request held until it is.
+         */
+        private void play(PlayRequest play) {
+            if (session != null) return;
+            if (inGame()) {
+                heldPlay.set(play);
+                if (inGame()) return;
+                play = heldPlay.getAndSet(null); // the report came in meanwhile
+                if (play == null) return; // and shardGameOver has already sent it on
+            }
+            placements.remove(playerName); // whatever their last game on a shard was, it is over
+            stopWatching();
+            this.setPlanetPath(play.planetPath());
+            // one queue at a time: the last request replaces any earlier one
+            if (play.ranked()) {
+                matchmaker.cancel(this);
+                rankedMatchmaker.enqueue(this, elo);
+            } else {
+                rankedMatchmaker.cancel(this);
+                matchmaker.enqueue(this);
+            }
+        }
+
+        // router: the player's game on a shard is over; a Play they sent before we heard goes through now
+        void shardGameOver() {
+            PlayRequest play = heldPlay.getAndSet(null);
+            if (play != null && isConnected()) {
+                play(play);
+            }
+        }
+
+        /** Releases the player; a running game waits for them to log back in. */
+        void disconnected() {
+            if (!disconnected.compareAndSet(false, true)) return;
+            matchmaker.cancel(this);
+            rankedMatchmaker.cancel(this);
+            friends.disconnected(this);
+            chat.disconnected(this);
+            stopWatching();
+            GameSession game = session;
+            if (game != null) { //player disconnected mid-game, hold the game for the reconnect window
+                game.left(this);
+            }
+            clients.remove(playerName, this); // only ours: a newer login may have taken the name already
+            conn.close();
+            System.out.println("Disconnected and closed all resources for player " + playerName);
         }
 
         @Override
         public void run() {
+            StreamConnection stream = (StreamConnection) conn;
             try {
                 while (true) {
-                    Object obj = in.readObject();
-                    if ("Play".equals(obj)) {
-                        this.setPlanetPath((String) in.readObject());
-                        addToWaitingList(this);
-                    }
-                    if (obj instanceof GameEvent ge) {
-                        switch (ge.getType()) {
-                            case MOVE:
-                                sendOpponent(this.opponent, ge);
-                                break;
-                            case WIN:
-                                sendOpponent(this.opponent, ge);
-                                sendOpponent(this, ge);
-                                System.out.println("Player " + ge.getWinningPlayer() + " has won!");
-                                currentGames.remove(findSession(this));
-                                this.setOpponent(null);
-                                break;
-                        }
-                    } else if (obj instanceof ChatMessage cm) {
-                        sendOpponent(this.opponent, cm);
-                    }
+                    onMessage(stream.read());
                 }
             } catch (SocketException e) {
                 System.out.println("Client " + playerName + " disconnected (socket closed).");
 
-            } catch (IOException | ClassNotFoundException e) {
+            } catch (IOException e) {
                 System.out.println("Client " + playerName + " disconnected unexpectedly.");
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
-                try {
-                    if (opponent != null) { //opponent disconnected, count it as surrender
-                        GameEvent forfeit = new GameEvent(GameEvent.Type.WIN, opponent.playerName);
-                        try {
-                            opponent.send(forfeit);
-                        } catch (IOException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                    }
-                    if (in != null) in.close();
-                    if (out != null) out.close();
-                    clients.remove(playerName);
-                    sock.close();
-                    System.out.println("Disconnected and closed all resources for player " + playerName);
-                }
-                catch (IOException e) {
-                    e.printStackTrace();
-                }
+                disconnected();
             }
         }
     }
 
+    /**
+     * One running game. The server keeps the authoritative board: every MOVE is
+     * checked against it before being relayed, and the session itself decides
+     * when the game is won or drawn. A BitBoard is two longs, so sessions stay
+     * cheap to keep around in large numbers. Every move is also handed to the
+     * {@link MoveJournal}, which only queues it.
+     */
     public class GameSession {
-        private final ClientHandler player1;
-        private final ClientHandler player2;
+        // replaced by the new handler when a dropped player logs back in
+        private volatile ClientHandler player1;
+        private volatile ClientHandler player2;
         private final String icon1;
         private final String icon2;
+        private final boolean ranked;
+        private final BitBoard board = new BitBoard();
+        private final byte[] moves = new byte[BitBoard.CELLS];
+        private final Spectators spectators = new Spectators(this::spectate);
+        // the players' chat, which spectators can read
+        private final ChatService.Channel room = chat.newGameChannel();
+        private final MoveJournal journal = Server.this.journal;
+        private final int journalId;
+        // the router's id for a game handed to this shard, 0 otherwise
+        private long handoff;
+        private boolean over;
 
-        public GameSession(ClientHandler p1, ClientHandler p2, String icon1, String icon2) {
+        public GameSession(ClientHandler p1, ClientHandler p2, String icon1, String icon2, boolean ranked) {
             this.player1 = p1;
             this.player2 = p2;
             this.icon1 = icon1;
             this.icon2 = icon2;
+            this.ranked = ranked;
+            this.journalId = journal != null ? journal.start(p1.playerName, p2.playerName, icon1, icon2, ranked) : 0;
+            room.join(p1);
+            room.join(p2);
+        }
+
+        /** A game from the journal, with the moves played so far. */
+        GameSession(ClientHandler p1, ClientHandler p2, MoveJournal.Game restored) {
+            this.player1 = p1;
+            this.player2 = p2;
+            this.icon1 = restored.icon1();
+            this.icon2 = restored.icon2();
+            this.ranked = restored.ranked();
+            this.journalId = restored.id();
+            for (byte column : restored.moves()) {
+                moves[board.moves()] = column;
+                board.play(column);
+            }
+            p1.session = this;
+            p2.session = this;
+            room.join(p1);
+            room.join(p2);
+        }
+
+        synchronized boolean isOver() {
+            return over;
         }
 
         public ClientHandler getOpponent(ClientHandler player) {
@@ -244,10 +764,278 @@ public class Server {
         public boolean contains(ClientHandler player) {
             return player == player1 || player == player2;
         }
+
+        /**
+         * Applies a move if it is legal, relays it, and ends the game on a win
+         * or full board. The move is encoded once for the opponent and every
+         * spectator.
+         */
+        void move(ClientHandler mover, int column) {
+            long start = System.nanoTime();
+            GameEvent result = null;
+            byte[] frame = Protocol.encode(new GameEvent(GameEvent.Type.MOVE, column, mover.playerName));
+            ClientHandler opponent;
+            synchronized (this) {
+                ClientHandler toMove = board.playerToMove() == 1 ? player1 : player2;
+                if (over || mover != toMove || !board.canPlay(column)) {
+                    System.out.println("Rejected move " + column + " from " + mover.playerName);
+                    return;
+                }
+                moves[board.moves()] = (byte) column;
+                board.play(column);
+                if (journal != null) {
+                    journal.move(journalId, column); // under the lock, so the journal has the board's order
+                }
+                spectators.publish(frame);
+                opponent = getOpponent(mover);
+                if (board.lastMoveWon()) {
+                    result = new GameEvent(GameEvent.Type.WIN, mover.playerName);
+                } else if (board.isFull()) {
+                    result = new GameEvent(GameEvent.Type.DRAW, null);
+                }
+                over = result != null;
+            }
+            sendFrame(opponent, frame);
+            Metrics.MOVE.record(System.nanoTime() - start);
+            Metrics.MOVES.increment();
+            if (result != null) {
+                finish(result);
+            }
+        }
+
+        /**
+         * Answers with the opening book's move for the asker, or -1 once the
+         * game has left the book. Casual games only, and only on the asker's turn.
+         */
+        void hint(ClientHandler asker) {
+            int column = -1;
+            synchronized (this) {
+                ClientHandler toMove = board.playerToMove() == 1 ? player1 : player2;
+                OpeningBook book = Server.this.book;
+                if (!ranked && !over && asker == toMove && book != null) {
+                    column = book.bestMove(board);
+                }
+            }
+            sendOpponent(asker, new Hint(column));
+        }
+
+        /** The player resigned, ran out of time or did not come back: the other one wins. */
+        void forfeit(ClientHandler loser) {
+            synchronized (this) {
+                if (over) return;
+                over = true;
+            }
+            finish(new GameEvent(GameEvent.Type.WIN, getOpponent(loser).playerName));
+        }
+
+        /** The player's connection dropped. Keeps their seat for the reconnect window. */
+        void left(ClientHandler player) {
+            if (RECONNECT_SECONDS <= 0) {
+                forfeit(player);
+                return;
+            }
+            synchronized (this) {
+                if (over) return;
+            }
+            waitFor(player);
+            sendOpponent(getOpponent(player), new ChatMessage("Server",
+                    player.playerName + " lost connection, waiting " + RECONNECT_SECONDS + "s for them to return", 0));
+        }
+
+        private void waitFor(ClientHandler player) {
+            suspended.put(player.playerName, this);
+            timers.schedule(() -> expire(player), RECONNECT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        // the window is up: a player who is still away loses, and a game nobody came back to is dropped
+        private void expire(ClientHandler away) {
+            boolean abandoned;
+            synchronized (this) {
+                if (over || (away != player1 && away != player2)) return; // finished, or they are back
+                abandoned = !getOpponent(away).isConnected();
+                if (abandoned) over = true;
+            }
+            if (!abandoned) {
+                System.out.println(away.playerName + " did not come back");
+                forfeit(away);
+                return;
+            }
+            System.out.println("Nobody came back to the game between " + player1.playerName + " and " + player2.playerName);
+            release();
+            if (journal != null) {
+                journal.end(journalId, MoveJournal.ABANDONED);
+            }
+        }
+
+        /**
+         * Seats a player who logged back in (or, on a shard, arrived) in place
+         * of their old handler and sends them the game as it stands. False if
+         * the game ended meanwhile.
+         */
+        boolean reattach(ClientHandler player, boolean returning) {
+            synchronized (this) {
+                if (over) return false;
+                ClientHandler old;
+                if (player1.playerName.equals(player.playerName) && !player1.isConnected()) {
+                    old = player1;
+                    player1 = player;
+                } else if (player2.playerName.equals(player.playerName) && !player2.isConnected()) {
+                    old = player2;
+                    player2 = player;
+                } else {
+                    return false;
+                }
+                room.leave(old);
+                player.session = this;
+                player.planetPath = player == player1 ? icon1 : icon2;
+                Snapshot snapshot = new Snapshot(getOpponent(player).playerName, getOpponentIcon(player),
+                        player.planetPath, player == player1 ? 1 : 2, played(board.moves()));
+                sendOpponent(player, snapshot); // under the lock, so no move can overtake it
+            }
+            room.join(player); // the chat they missed, after the board
+            sendOpponent(getOpponent(player), new ChatMessage("Server", player.playerName + (returning ? " is back" : " joined"), 0));
+            return true;
+        }
+
+        /** Starts sending the game to a spectator; false if it is already over. */
+        boolean watch(ClientHandler spectator) {
+            spectator.watching = this;
+            if (!spectators.add(spectator)) {
+                spectator.watching = null;
+                return false;
+            }
+            room.join(spectator);
+            System.out.println(spectator.playerName + " watches " + player1.playerName + " vs " + player2.playerName
+                    + " (" + spectators.size() + " watching)");
+            return true;
+        }
+
+        void unwatch(ClientHandler spectator) {
+            spectators.remove(spectator);
+            room.leave(spectator);
+        }
+
+        // the first n moves as digits, for snapshots
+        private String played(int n) {
+            StringBuilder played = new StringBuilder(n);
+            for (int i = 0; i < n; i++) {
+                played.append((char) ('0' + moves[i]));
+            }
+            return played.toString();
+        }
+
+        private byte[] spectate(int n) {
+            return Protocol.encode(new Spectate(player1.playerName, player2.playerName, icon1, icon2, played(n)));
+        }
+
+        private void finish(GameEvent result) {
+            String opening = openingReport();
+            if (opening != null) { // before the result, which takes the players off the game screen
+                byte[] note = Protocol.encode(new ChatMessage("Server", opening, 0));
+                sendFrame(player1, note);
+                sendFrame(player2, note);
+            }
+            byte[] frame = Protocol.encode(result);
+            sendFrame(player1, frame);
+            sendFrame(player2, frame);
+            spectators.end(frame);
+            release();
+            if (result.getType() == GameEvent.Type.WIN) {
+                System.out.println("Player " + result.getWinningPlayer() + " has won!");
+            } else {
+                System.out.println(player1.playerName + " and " + player2.playerName + " drew.");
+            }
+            String winner = result.getType() == GameEvent.Type.WIN ? result.getWinningPlayer() : null;
+            if (journal != null) {
+                journal.end(journalId, winner == null ? 0 : player1.playerName.equals(winner) ? 1 : 2);
+            }
+            int ratingChange = 0;
+            if (ranked) {
+                double score1 = winner == null ? 0.5 : player1.playerName.equals(winner) ? 1 : 0;
+                int[] updated = Elo.update(player1.elo, player2.elo, score1);
+                ratingChange = updated[0] - player1.elo;
+                player1.elo = updated[0];
+                player2.elo = updated[1];
+            }
+            writeBehind.submit(new WriteBehind.GameResult(
+                    new WriteBehind.MatchResult(player1.playerName, player2.playerName, winner, ranked,
+                            board.moves(), ratingChange, System.currentTimeMillis()),
+                    stats(player1, winner), stats(player2, winner),
+                    ranked ? new WriteBehind.RatingUpdate(player1.playerName, player1.elo) : null,
+                    ranked ? new WriteBehind.RatingUpdate(player2.playerName, player2.elo) : null));
+        }
+
+        /**
+         * Checks the game's opening against the book: how long the players
+         * followed its line, and the first move that threw away a proven win
+         * or walked into a proven loss. Only proven scores are judged, since
+         * the rest come from searches of different depths. Null without a book
+         * or before any move it covers was played.
+         */
+        private String openingReport() {
+            OpeningBook book = Server.this.book;
+            if (book == null) return null;
+            BitBoard replay = new BitBoard();
+            int followed = -1;
+            int played = board.moves();
+            int ply = 0;
+            for (; ply < played && ply + 1 < book.plies(); ply++) {
+                long before = book.lookup(replay);
+                int bookMove = book.bestMove(replay);
+                int column = moves[ply];
+                replay.play(column);
+                long after = book.lookup(replay);
+                if (before == OpeningBook.MISS || after == OpeningBook.MISS) break;
+                if (column != bookMove && followed < 0) {
+                    followed = ply;
+                }
+                int was = OpeningBook.score(before);
+                int now = -OpeningBook.score(after); // the mover's view
+                String mistake = was > OpeningBook.PROVEN && now <= OpeningBook.PROVEN ? "threw away a won position"
+                        : was >= -OpeningBook.PROVEN && now < -OpeningBook.PROVEN ? "walked into a lost position"
+                        : null;
+                if (mistake != null) {
+                    String mover = (ply % 2 == 0 ? player1 : player2).playerName;
+                    return "Opening: " + mover + "'s move " + (ply + 1) + " (column " + (column + 1) + ") " + mistake
+                            + ", the book plays column " + (bookMove + 1);
+                }
+            }
+            if (ply == 0) return null; // ended before a move the book could judge
+            return followed < 0 ? "Opening: by the book for all " + ply + " moves it covers"
+                    : "Opening: left the book's line at move " + (followed + 1) + ", no proven result thrown away";
+        }
+
+        private void release() {
+            room.close();
+            player1.session = null;
+            player2.session = null;
+            suspended.remove(player1.playerName, this);
+            suspended.remove(player2.playerName, this);
+            synchronized (currentGames) {
+                currentGames.remove(this);
+            }
+            if (handoff != 0) { // until the tickets for it have expired
+                heartbeat.ended(handoff);
+                timers.schedule(() -> handedOff.remove(handoff, this), Ticket.TTL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private WriteBehind.StatUpdate stats(ClientHandler player, String winner) {
+            if (winner == null) return new WriteBehind.StatUpdate(player.playerName, 0, 0, 1);
+            return winner.equals(player.playerName)
+                    ? new WriteBehind.StatUpdate(player.playerName, 1, 0, 0)
+                    : new WriteBehind.StatUpdate(player.playerName, 0, 1, 0);
+        }
     }
 
         public static void main(String[] args) {
-            new Server().start();
+            // "blocking" (platform thread per player, the default), "virtual"
+            // (virtual thread per player) or "nio" (selector loops). For several
+            // JVMs on one machine, start a router with -Dconnect4.role=router and
+            // shards with -Dconnect4.role=shard on ports of their own.
+            String mode = args.length > 0 ? args[0] : "blocking";
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : PORT;
+            new Server(mode, port).start();
         }
     }
 
@@ -0,0 +1,227 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * The router's list of game-server shards, kept by their heartbeats. Each
+ * shard sends a signed UDP datagram to the router's port every
+ * {@link #HEARTBEAT_MILLIS} with how many games and players it has; a shard
+ * that misses three is left out until it beats again. New games go to the
+ * live shard with the fewest, counting the games handed to it since its
+ * last heartbeat so a burst of pairings does not all land on one shard.
+ *
+ * <p>Heartbeats also carry which handed-off games the shard has seated and
+ * which have ended, so the router knows when their players are free. Each
+ * report rides in {@link Heartbeat#REPEATS} beats in a row: losing all of
+ * them takes more dropped datagrams than it takes for the router to count
+ * the shard as down, which frees its players anyway.
+ */
+public class ShardDirectory {
+    static final long HEARTBEAT_MILLIS = Long.getLong("connect4.heartbeatMillis", 1000);
+    private static final long DEAD_NANOS = TimeUnit.MILLISECONDS.toNanos(3 * HEARTBEAT_MILLIS);
+
+    private final byte[] key;
+    private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+    private final LongConsumer seated;
+    private final LongConsumer ended;
+
+    /** seated and ended are told the router's id of each game a shard reports; repeats included. */
+    public ShardDirectory(byte[] key, LongConsumer seated, LongConsumer ended) {
+        this.key = key;
+        this.seated = seated;
+        this.ended = ended;
+    }
+
+    /** One shard as of its last heartbeat. */
+    static final class Shard {
+        final String host;
+        final int port;
+        private volatile int games;
+        private volatile int players;
+        private volatile long lastBeat;
+        // when it last came up, or back after being down
+        private volatile long upSince;
+        private final AtomicInteger placed = new AtomicInteger(); // since the last beat
+
+        Shard(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        int load() {
+            return games + placed.get();
+        }
+
+        boolean isLive() {
+            return System.nanoTime() - lastBeat <= DEAD_NANOS;
+        }
+
+        /** Whether the shard has been up without a break since this System.nanoTime(). */
+        boolean upSince(long nanos) {
+            return isLive() && upSince - nanos <= 0;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port + " " + games + " games, " + players + " players";
+        }
+    }
+
+    /** Receives heartbeats on the given UDP port, on a thread of its own. */
+    void listen(int port) throws IOException {
+        DatagramSocket socket = new DatagramSocket(new InetSocketAddress(port));
+        Thread t = new Thread(() -> {
+            byte[] buf = new byte[65507];
+            while (true) {
+                DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                try {
+                    socket.receive(packet);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                beat(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+            }
+        }, "heartbeats");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // "host port games players reports signature"; reports is "-" or "+id,-id,...", +seated and -ended, ids in base 36
+    private void beat(String message) {
+        int sig = message.lastIndexOf(' ');
+        if (sig < 0) return;
+        String body = message.substring(0, sig);
+        byte[] expected = Ticket.mac(key, body.getBytes(StandardCharsets.UTF_8));
+        byte[] signature;
+        try {
+            signature = Base64.getUrlDecoder().decode(message.substring(sig + 1));
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        String[] f = body.split(" ");
+        if (!MessageDigest.isEqual(expected, signature) || f.length != 5) {
+            System.out.println("Ignoring a heartbeat that is not signed with the shard key");
+            return;
+        }
+        Shard shard = shards.computeIfAbsent(f[0] + ":" + f[1], k -> {
+            System.out.println("Shard " + k + " is up");
+            return new Shard(f[0], Integer.parseInt(f[1]));
+        });
+        long now = System.nanoTime();
+        if (shard.lastBeat == 0 || !shard.isLive()) {
+            shard.upSince = now;
+        }
+        shard.games = Integer.parseInt(f[2]);
+        shard.players = Integer.parseInt(f[3]);
+        shard.placed.set(0);
+        shard.lastBeat = now;
+        if (!f[4].equals("-")) {
+            for (String report : f[4].split(",")) {
+                long game = Long.parseLong(report.substring(1), 36);
+                (report.charAt(0) == '+' ? seated : ended).accept(game);
+            }
+        }
+    }
+
+    /** The live shard with the fewest games, counted as one more; null if none is live. */
+    Shard pick() {
+        Shard best = null;
+        for (Shard s : shards.values()) {
+            if (!s.isLive()) continue;
+            if (best == null || s.load() < best.load()) best = s;
+        }
+        if (best != null) {
+            best.placed.incrementAndGet();
+        }
+        return best;
+    }
+
+    public String summary() {
+        long now = System.nanoTime();
+        StringBuilder sb = new StringBuilder();
+        for (Shard s : shards.values()) {
+            if (!sb.isEmpty()) sb.append("; ");
+            sb.append(s).append(now - s.lastBeat > DEAD_NANOS ? " (down)" : "");
+        }
+        return sb.isEmpty() ? "none" : sb.toString();
+    }
+
+    /**
+     * Run on a shard: reports its load, and the games it seated and ended, to
+     * the router at host:port every {@link #HEARTBEAT_MILLIS}.
+     */
+    static Heartbeat heartbeat(String router, String host, int port, IntSupplier games, IntSupplier players,
+                               byte[] key, ScheduledExecutorService timers) throws IOException {
+        int colon = router.lastIndexOf(':');
+        InetSocketAddress to = new InetSocketAddress(router.substring(0, colon), Integer.parseInt(router.substring(colon + 1)));
+        DatagramSocket socket = new DatagramSocket();
+        Heartbeat heartbeat = new Heartbeat();
+        timers.scheduleAtFixedRate(() -> {
+            String body = host + " " + port + " " + games.getAsInt() + " " + players.getAsInt() + " " + heartbeat.reports();
+            String message = body + " " + Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(Ticket.mac(key, body.getBytes(StandardCharsets.UTF_8)));
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            try {
+                socket.send(new DatagramPacket(bytes, bytes.length, to));
+            } catch (IOException e) {
+                System.out.println("Heartbeat to " + router + " failed: " + e.getMessage());
+            }
+        }, 0, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+        return heartbeat;
+    }
+
+    /** A shard's reports to the router about the games it was handed. */
+    static final class Heartbeat {
+        static final int REPEATS = 4;
+        // per beat, which keeps a datagram well under 64 KB; the rest wait for the next beat
+        static final int MAX_REPORTS = 2000;
+
+        private final Queue<String> fresh = new ConcurrentLinkedQueue<>();
+        // report -> beats it still goes out in; the timer thread's alone
+        private final Map<String, Integer> sending = new LinkedHashMap<>();
+
+        void seated(long game) {
+            fresh.add("+" + Long.toString(game, 36));
+        }
+
+        void ended(long game) {
+            fresh.add("-" + Long.toString(game, 36));
+        }
+
+        private String reports() {
+            for (String report; (report = fresh.poll()) != null; ) {
+                sending.put(report, REPEATS);
+            }
+            if (sending.isEmpty()) return "-";
+            StringJoiner out = new StringJoiner(",");
+            Iterator<Map.Entry<String, Integer>> it = sending.entrySet().iterator();
+            for (int n = 0; n < MAX_REPORTS && it.hasNext(); n++) {
+                Map.Entry<String, Integer> report = it.next();
+                out.add(report.getKey());
+                if (report.getValue() == 1) {
+                    it.remove();
+                } else {
+                    report.setValue(report.getValue() - 1);
+                }
+            }
+            return out.toString();
+        }
+    }
+}
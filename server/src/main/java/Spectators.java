@@ -0,0 +1,139 @@
+import com.example.common.BitBoard;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * The watchers of one game. Each event is encoded once, by the session, and
+ * the same frame goes to every watcher; publishing stores it in a log of
+ * the game's moves and wakes the game's feed thread, so a move costs the
+ * player the same whether nobody or thousands are watching.
+ *
+ * <p>The feed thread walks each watcher from where they last were and
+ * queues the frames on their connection, which never blocks. A watcher
+ * whose connection is over its high-water mark is skipped until it drains;
+ * if by then they are more than {@link #MAX_LAG} moves behind they are sent
+ * the game as it now stands (a {@link com.example.common.Spectate}) instead
+ * of the backlog, so a slow spectator is down-sampled rather than queued
+ * for. One that stays congested for {@link Backlog#STALL_NANOS} is dropped.
+ */
+public class Spectators {
+    static final int MAX_LAG = Integer.getInteger("connect4.spectatorMaxLag", 8);
+    private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final byte[][] moves = new byte[BitBoard.CELLS][];
+    private volatile int published;
+    private volatile byte[] result;
+    // encodes the game as it stood after the given number of moves
+    private final IntFunction<byte[]> snapshot;
+    private final CopyOnWriteArrayList<Watcher> watchers = new CopyOnWriteArrayList<>();
+    private volatile Thread feed;
+
+    public Spectators(IntFunction<byte[]> snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /** Adds a watcher and starts sending them the game. False once the game is over. */
+    public synchronized boolean add(Server.ClientHandler spectator) {
+        if (result != null) return false;
+        watchers.add(new Watcher(spectator));
+        if (feed == null) {
+            feed = Thread.ofVirtual().name("spectators").start(this::run);
+        }
+        LockSupport.unpark(feed);
+        return true;
+    }
+
+    public void remove(Server.ClientHandler spectator) {
+        watchers.removeIf(w -> w.spectator == spectator);
+    }
+
+    public int size() {
+        return watchers.size();
+    }
+
+    /** The next move's frame. Called under the session's lock, so moves are published in order. */
+    public void publish(byte[] moveFrame) {
+        int n = published;
+        moves[n] = moveFrame;
+        published = n + 1;
+        LockSupport.unpark(feed); // a no-op while nobody has ever watched
+    }
+
+    /** The game is over: watchers get the result frame and are let go. */
+    public synchronized void end(byte[] resultFrame) {
+        result = resultFrame;
+        LockSupport.unpark(feed);
+    }
+
+    private void run() {
+        while (true) {
+            byte[] last = result; // read before the moves, so no move is missed before it
+            int n = published;
+            boolean heldBack = false;
+            for (Watcher w : watchers) {
+                heldBack |= !w.catchUp(n, last);
+            }
+            if (last != null && !heldBack) {
+                watchers.clear();
+                return;
+            }
+            if (heldBack) {
+                LockSupport.parkNanos(this, RETRY_NANOS); // until their connections drain
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    private final class Watcher {
+        final Server.ClientHandler spectator;
+        int cursor = -1; // moves sent so far, -1 before the first snapshot
+        long heldSince;
+
+        Watcher(Server.ClientHandler spectator) {
+            this.spectator = spectator;
+        }
+
+        // false if the spectator's connection is congested and they are left behind for now
+        boolean catchUp(int n, byte[] last) {
+            try {
+                if (!spectator.writable()) {
+                    long now = System.nanoTime();
+                    if (heldSince == 0) {
+                        heldSince = now;
+                    } else if (now - heldSince > Backlog.STALL_NANOS) {
+                        System.out.println("Dropping spectator " + spectator.getPlayerName() + ": not reading");
+                        done();
+                        return true;
+                    }
+                    return false;
+                }
+                heldSince = 0;
+                if (cursor < 0 || n - cursor > MAX_LAG) {
+                    spectator.sendFrame(snapshot.apply(n));
+                    cursor = n;
+                }
+                while (cursor < n) {
+                    spectator.sendFrame(moves[cursor++]);
+                }
+                if (last != null) {
+                    spectator.sendFrame(last);
+                    done();
+                }
+            } catch (IOException e) {
+                System.out.println("Dropping spectator " + spectator.getPlayerName() + ": " + e.getMessage());
+                done();
+            }
+            return true;
+        }
+
+        private void done() {
+            watchers.remove(this);
+            spectator.stoppedWatching(Spectators.this);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import com.example.common.Protocol;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking socket transport: one thread per player sits in {@link #read()}.
+ *
+ * <p>Writes only queue the frame. A virtual writer thread per connection
+ * takes everything queued, writes it through one buffer and flushes once,
+ * so a burst of small messages goes out in a single send and no handler,
+ * matchmaker or game thread ever blocks on this player's socket. The queue
+ * is bounded by its {@link Backlog}.
+ */
+public class StreamConnection implements PlayerConnection {
+    private final Socket sock;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    // handlers, the matchmaker and spectator feeds all queue here; a lock rather
+    // than synchronized so virtual threads waiting on it stay unpinned
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queued = lock.newCondition();
+    private ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private ArrayDeque<byte[]> draining = new ArrayDeque<>();
+    private final Backlog backlog = new Backlog();
+    private boolean closing;
+    private volatile boolean closed;
+
+    public StreamConnection(Socket sock) throws IOException {
+        this.sock = sock;
+        this.in = new DataInputStream(new BufferedInputStream(sock.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream()));
+        Thread.ofVirtual().name("writer-" + sock.getPort()).start(this::drain);
+    }
+
+    public Object read() throws IOException {
+        int len = in.readUnsignedShort();
+        byte[] body = new byte[len];
+        in.readFully(body);
+        Metrics.BYTES_IN.add(Protocol.HEADER + len);
+        return Protocol.decode(body, 0, len);
+    }
+
+    @Override
+    public void write(byte[] frame) throws IOException {
+        lock.lock();
+        try {
+            if (closing || closed) throw new IOException("Connection closed");
+            if (!backlog.queued(frame.length)) {
+                System.out.println("Dropping " + sock.getRemoteSocketAddress() + ": " + backlog.bytes()
+                        + " bytes unread for too long");
+                abort();
+                throw new IOException("Peer is not reading");
+            }
+            queue.add(frame);
+            queued.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean writable() {
+        return !closed && !backlog.congested();
+    }
+
+    /** Sends what is still queued, then closes the socket; a peer that will not take it is cut off. */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closing = true;
+            queued.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (backlog.bytes() > 0) {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    Thread.sleep(Backlog.STALL_NANOS / 1_000_000);
+                } catch (InterruptedException ignored) {
+                }
+                abort();
+            });
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                ArrayDeque<byte[]> batch;
+                lock.lock();
+                try {
+                    while (queue.isEmpty() && !closing) {
+                        queued.awaitUninterruptibly();
+                    }
+                    if (queue.isEmpty()) break; // closing and nothing left to send
+                    batch = queue; // swap, so writers queue into the other deque meanwhile
+                    queue = draining;
+                    draining = batch;
+                } finally {
+                    lock.unlock();
+                }
+                long bytes = 0;
+                for (byte[] frame : batch) {
+                    out.write(frame);
+                    bytes += frame.length;
+                }
+                batch.clear();
+                out.flush();
+                backlog.sent(bytes);
+                Metrics.BYTES_OUT.add(bytes);
+            }
+        } catch (IOException e) {
+            // the peer is gone; the reader thread notices too and ends the session
+        } finally {
+            abort();
+        }
+    }
+
+    private void abort() {
+        if (closed) return;
+        closed = true;
+        try {
+            sock.close(); // also wakes the reader and a writer stuck in a send
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * What the router tells a shard about a game it hands off, carried by the
+ * player: the shard has no other line to the router, so everything it needs
+ * to seat the player is in here, signed with the key the router and its
+ * shards share ({@code connect4.shardSecret}). Tickets last
+ * {@link #TTL_MILLIS}; a rejoin ticket, issued to a player who dropped out
+ * and logged back in to the router, only finds a game the shard already
+ * has and never starts one.
+ */
+record Ticket(long game, String player, String player1, String player2, String icon1, String icon2,
+              boolean ranked, boolean rejoin, long expires) {
+    static final long TTL_MILLIS = Long.getLong("connect4.ticketSeconds", 30) * 1000;
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /** A ticket for one of the game's players, good for {@link #TTL_MILLIS} from now. */
+    static Ticket issue(long game, String player, String player1, String player2, String icon1, String icon2,
+                        boolean ranked, boolean rejoin) {
+        return new Ticket(game, player, player1, player2, icon1, icon2, ranked, rejoin,
+                System.currentTimeMillis() + TTL_MILLIS);
+    }
+
+    /** payload.signature, both base64url. */
+    String sign(byte[] key) {
+        String payload = String.join("\n", Long.toString(game), player, player1, player2, orEmpty(icon1), orEmpty(icon2),
+                ranked ? "1" : "0", rejoin ? "1" : "0", Long.toString(expires));
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        Base64.Encoder b64 = Base64.getUrlEncoder().withoutPadding();
+        return b64.encodeToString(bytes) + "." + b64.encodeToString(mac(key, bytes));
+    }
+
+    /** The ticket the token carries, or null if it is malformed, forged or expired. */
+    static Ticket verify(String token, byte[] key) {
+        if (token == null) return null;
+        int dot = token.indexOf('.');
+        if (dot < 0) return null;
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(token.substring(0, dot));
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, mac(key, payload))) return null;
+            String[] f = new String(payload, StandardCharsets.UTF_8).split("\n", -1);
+            if (f.length != 9) return null;
+            Ticket t = new Ticket(Long.parseLong(f[0]), f[1], f[2], f[3], orNull(f[4]), orNull(f[5]),
+                    f[6].equals("1"), f[7].equals("1"), Long.parseLong(f[8]));
+            return t.expires < System.currentTimeMillis() ? null : t;
+        } catch (IllegalArgumentException e) { // bad base64 or numbers
+            return null;
+        }
+    }
+
+    /** The shared key, from {@code connect4.shardSecret}; a fixed one for trying it out on localhost. */
+    static byte[] key() {
+        String secret = System.getProperty("connect4.shardSecret");
+        if (secret == null) {
+            System.out.println("connect4.shardSecret is not set, using the localhost test key");
+            secret = "connect4-localhost";
+        }
+        return secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // planets are optional; the payload has no nulls
+    private static String orEmpty(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String orNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+
+    static byte[] mac(byte[] key, byte[] data) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " unavailable", e);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Allows bursts of up to {@code burst} actions, refilled at {@code perSecond}.
+ * Tokens are topped up lazily from the clock on each take, so an idle
+ * bucket costs nothing.
+ */
+final class TokenBucket {
+    private final double burst;
+    private final double perNano;
+    private double tokens;
+    private long last = System.nanoTime();
+
+    TokenBucket(int burst, double perSecond) {
+        this.burst = burst;
+        this.perNano = perSecond / 1e9;
+        this.tokens = burst;
+    }
+
+    /** Takes a token; false if there is none left yet. */
+    synchronized boolean take() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - last) * perNano);
+        last = now;
+        if (tokens < 1) return false;
+        tokens--;
+        return true;
+    }
+}
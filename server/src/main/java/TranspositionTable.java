@@ -0,0 +1,71 @@
+/**
+ * Transposition table shared by every bot search thread, without locks.
+ *
+ * <p>Each slot is two longs: the packed entry, and the position key XORed
+ * with that entry. Threads read and write slots with plain array accesses,
+ * so two writers can interleave and leave one slot's longs from different
+ * stores. A reader only accepts a slot whose two halves XOR back to its own
+ * key, so such a torn slot reads as a miss, never as another position's
+ * score. A lost or torn entry only costs a re-search.
+ */
+public final class TranspositionTable {
+    public static final int EXACT = 0;
+    public static final int LOWER = 1;
+    public static final int UPPER = 2;
+
+    /** Returned by {@link #probe} when the position is not in the table. */
+    public static final long MISS = -1;
+
+    private static final long VALID = 1L << 40; // never set in an empty (all zero) slot
+
+    private final int bits;
+    private final long[] checks;
+    private final long[] entries;
+
+    /** A table of 2^bits slots, 16 bytes each. */
+    public TranspositionTable(int bits) {
+        this.bits = bits;
+        this.checks = new long[1 << bits];
+        this.entries = new long[1 << bits];
+    }
+
+    /** The entry stored for the position, or {@link #MISS}. */
+    public long probe(long key) {
+        int slot = slot(key);
+        long entry = entries[slot];
+        long check = checks[slot];
+        return (entry & VALID) != 0 && (check ^ entry) == key ? entry : MISS;
+    }
+
+    /** Always replaces whatever the slot held. */
+    public void store(long key, int score, int depth, int flag, int move) {
+        long entry = VALID | (score & 0xFFFFL) | (long) depth << 16 | (long) flag << 24 | (long) move << 26;
+        int slot = slot(key);
+        entries[slot] = entry;
+        checks[slot] = key ^ entry;
+    }
+
+    public static int score(long entry) {
+        return (short) entry;
+    }
+
+    public static int depth(long entry) {
+        return (int) (entry >>> 16) & 0xFF;
+    }
+
+    public static int flag(long entry) {
+        return (int) (entry >>> 24) & 3;
+    }
+
+    public static int move(long entry) {
+        return (int) (entry >>> 26) & 7;
+    }
+
+    public long sizeBytes() {
+        return 16L << bits;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-memory copy of the users table, so players who log in again
+ * (or whose rating is looked up) are answered without touching SQLite. The
+ * least recently used entry is evicted once the cache is full.
+ *
+ * <p>Loads race with writes: a login may read a row from the database while
+ * a sign-up or rating change for the same user lands. Every load therefore
+ * registers a token first, any write for that user cancels it, and a load
+ * whose token was cancelled is not stored. The cache can miss, but it never
+ * holds a row older than the last write it was told about.
+ *
+ * <p>A rating change reaches the table later, through the write-behind
+ * queue. Until {@link #eloCommitted} says it has, the new rating is pinned:
+ * it is applied to the cached row if there is one and to any row loaded for
+ * the user meanwhile, so a load can never bring back the old rating. If
+ * the write is given up on, {@link #eloDropped} unpins it again.
+ */
+public class UserCache {
+
+    /** What the server needs about a user. friends is read-only. */
+    public record User(String username, String password, int elo, List<String> friends) {
+        User withElo(int elo) {
+            return new User(username, password, elo, friends);
+        }
+    }
+
+    private final LinkedHashMap<String, User> users;
+    private final Map<String, Object> loading = new HashMap<>();
+    // ratings queued for the table but not yet committed, by user
+    private final Map<String, Integer> pendingElo = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public UserCache(int capacity) {
+        this.users = new LinkedHashMap<>(16, 0.75f, true) { // access order: eldest is least recently used
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** The cached row, or null on a miss. */
+    public synchronized User get(String username) {
+        User user = users.get(username);
+        if (user != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return user;
+    }
+
+    /** Call before reading the row from the database; hand the token to {@link #loaded}. */
+    public synchronized Object beginLoad(String username) {
+        Object token = new Object();
+        loading.put(username, token);
+        return token;
+    }
+
+    /** Stores a loaded row unless a write for the user happened since {@link #beginLoad}. user may be null. */
+    public synchronized void loaded(String username, Object token, User user) {
+        if (loading.get(username) != token) return;
+        loading.remove(username);
+        if (user != null) {
+            Integer elo = pendingElo.get(username);
+            users.put(username, elo == null ? user : user.withElo(elo));
+        }
+    }
+
+    /** A freshly written row, e.g. after sign-up. */
+    public synchronized void put(User user) {
+        loading.remove(user.username());
+        users.put(user.username(), user);
+    }
+
+    /** A new rating was queued for writing; pinned until {@link #eloCommitted}. */
+    public synchronized void updateElo(String username, int elo) {
+        pendingElo.put(username, elo);
+        User user = users.get(username);
+        if (user != null) {
+            users.put(username, user.withElo(elo));
+        }
+    }
+
+    /** The rating is in the table now; unpins it unless a newer one is queued. */
+    public synchronized void eloCommitted(String username, int elo) {
+        pendingElo.remove(username, elo);
+    }
+
+    /**
+     * The rating will never be written. Unpins it unless a newer one is
+     * queued, and drops the cached row so the next lookup reads the table.
+     */
+    public synchronized void eloDropped(String username, int elo) {
+        pendingElo.remove(username, elo);
+        invalidate(username);
+    }
+
+    public synchronized void invalidate(String username) {
+        loading.remove(username);
+        users.remove(username);
+    }
+
+    public synchronized int size() {
+        return users.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** "size=812 hits=10234 misses=812 evictions=0" for log lines. */
+    public String summary() {
+        return "size=" + size() + " hits=" + hits() + " misses=" + misses() + " evictions=" + evictions();
+    }
+}
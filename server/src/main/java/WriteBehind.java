@@ -0,0 +1,156 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind pipeline for everything a finished game stores: the match
+ * row, each player's win/loss/draw counts and, for ranked games, the new
+ * ratings. Game threads only enqueue; one writer thread drains whatever has
+ * piled up and commits it to SQLite as a single transaction, so a burst of
+ * finished games costs one fsync instead of one per statement. A game's
+ * writes travel as one {@link GameResult}, so a batch holds whole games.
+ *
+ * <p>The queue is bounded. If the writer falls {@link #CAPACITY} games
+ * behind, {@link #submit} blocks the game thread until there is room again,
+ * so memory stays flat and nothing is dropped. {@link #close} stops intake
+ * and commits everything still queued before returning.
+ */
+public class WriteBehind {
+    static final int CAPACITY = 8192;
+    // games per transaction; each is three to five statements
+    static final int MAX_BATCH = 128;
+
+    /** winner is null for a draw; ratingChange is player1's (player2's is the negation), 0 for casual games. */
+    record MatchResult(String player1, String player2, String winner, boolean ranked,
+                       int moves, int ratingChange, long endedAt) {}
+
+    record StatUpdate(String username, int wins, int losses, int draws) {}
+
+    record RatingUpdate(String username, int elo) {}
+
+    /**
+     * Everything one finished game stores, queued and committed as a unit so
+     * one player's stats or rating never land without the other's. The
+     * ratings are null for casual games.
+     */
+    record GameResult(MatchResult match, StatUpdate stats1, StatUpdate stats2,
+                      RatingUpdate rating1, RatingUpdate rating2) {}
+
+    // tells the writer to finish; found by identity, never equal to a real result
+    private static final GameResult STOP = new GameResult(null, null, null, null, null);
+
+    private final BlockingQueue<GameResult> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private final Thread writer = new Thread(this::drain, "db-writer");
+    private volatile boolean closed;
+    private long batches;
+    private long written;
+
+    public WriteBehind() {
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Queues a game's result, waiting for room if the writer is a full queue behind. */
+    public void submit(GameResult result) {
+        if (closed) {
+            System.out.println("Database writer closed, dropping " + result);
+            return;
+        }
+        // the cache is current straight away, the table follows
+        for (RatingUpdate r : new RatingUpdate[] {result.rating1(), result.rating2()}) {
+            if (r != null) {
+                Database.ratingChanged(r.username(), r.elo());
+            }
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(result);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // the write must not be lost; restore the flag afterwards
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int pending() {
+        return queue.size();
+    }
+
+    /** Stops accepting writes and waits for everything queued to be committed. */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        submitStop();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            System.out.println("Database writer did not finish, " + queue.size() + " games lost");
+        } else {
+            System.out.println("Database writer flushed " + written + " games in " + batches + " batches");
+        }
+    }
+
+    private void submitStop() {
+        while (true) {
+            try {
+                queue.put(STOP);
+                return;
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private void drain() {
+        List<GameResult> batch = new ArrayList<>(MAX_BATCH);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue; // only close() ends the writer
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            stopping = batch.removeIf(r -> r == STOP);
+            if (stopping) {
+                queue.drainTo(batch); // stragglers that raced with close()
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    private void commit(List<GameResult> batch) {
+        // a failed batch is retried a few times: SQLite can still report BUSY past the timeout
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Database.applyBatch(batch);
+                batches++;
+                written += batch.size();
+                return;
+            } catch (SQLException e) {
+                System.out.println("Database error: " + e.getMessage() + " (batch of " + batch.size() + ", attempt " + attempt + ")");
+                if (attempt == 3) {
+                    System.out.println("Dropping " + batch.size() + " games: " + batch);
+                    Database.batchDropped(batch);
+                    return;
+                }
+                try {
+                    Thread.sleep(100L * attempt);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+}